@@ -2,9 +2,9 @@ package se.bjurr.sbcc;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newTreeMap;
+import static com.google.common.collect.Sets.newLinkedHashSet;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
-import static java.util.regex.Pattern.compile;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketEmail;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketName;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketSlug;
@@ -13,10 +13,12 @@ import static se.bjurr.sbcc.settings.SbccGroup.Accept.SHOW_MESSAGE;
 import static se.bjurr.sbcc.settings.SbccGroup.Match.ALL;
 import static se.bjurr.sbcc.settings.SbccGroup.Match.NONE;
 import static se.bjurr.sbcc.settings.SbccGroup.Match.ONE;
+import static se.bjurr.sbcc.settings.SbccPatterns.getPattern;
 
 import com.atlassian.bitbucket.auth.AuthenticationContext;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import se.bjurr.sbcc.data.SbccChangeSet;
 import se.bjurr.sbcc.settings.SbccGroup;
@@ -39,7 +41,7 @@ public class CommitMessageValidator {
   public boolean validateChangeSetForAuthorEmail(
       SbccSettings settings, SbccChangeSet sbccChangeSet, SbccRenderer sbccRenderer) {
     if (settings.getRequireMatchingAuthorEmailRegexp().isPresent()) {
-      return compile(sbccRenderer.render(settings.getRequireMatchingAuthorEmailRegexp().get()))
+      return getPattern(sbccRenderer.render(settings.getRequireMatchingAuthorEmailRegexp().get()))
           .matcher(sbccChangeSet.getAuthor().getEmailAddress())
           .find();
     }
@@ -50,6 +52,35 @@ public class CommitMessageValidator {
     return TRUE;
   }
 
+  /** True if the authors of the commits are looked up in the user directory. */
+  public static boolean shouldValidateAuthorsInBitbucket(SbccSettings settings) {
+    return settings.getRequireMatchingAuthorEmailInBitbucket()
+        || settings.getRequireMatchingAuthorNameInBitbucket()
+        || settings.isRequireMatchingAuthorNameInBitbucketSlug();
+  }
+
+  /**
+   * Looks up the distinct authors of the commits at once, before each commit is validated against
+   * the cached answers.
+   */
+  public void resolveAuthorsInBitbucket(
+      SbccSettings settings, List<SbccChangeSet> sbccChangeSets) {
+    final Set<String> emails = newLinkedHashSet();
+    final Set<String> displayNames = newLinkedHashSet();
+    final Set<String> slugs = newLinkedHashSet();
+    for (final SbccChangeSet sbccChangeSet : sbccChangeSets) {
+      if (settings.getRequireMatchingAuthorEmailInBitbucket()) {
+        emails.add(sbccChangeSet.getAuthor().getEmailAddress());
+      }
+      if (settings.getRequireMatchingAuthorNameInBitbucket()) {
+        displayNames.add(sbccChangeSet.getAuthor().getName());
+      } else if (settings.isRequireMatchingAuthorNameInBitbucketSlug()) {
+        slugs.add(sbccChangeSet.getAuthor().getName());
+      }
+    }
+    this.sbccUserAdminService.resolve(emails, displayNames, slugs);
+  }
+
   public boolean validateChangeSetForAuthorEmailInBitbucket(
       SbccSettings settings, SbccChangeSet sbccChangeSet) throws ExecutionException {
     if (settings.getRequireMatchingAuthorEmailInBitbucket()) {
@@ -89,7 +120,7 @@ public class CommitMessageValidator {
       SbccSettings settings, SbccChangeSet sbccChangeSet, SbccRenderer sbccRenderer) {
     if (settings.shouldRequireMatchingCommitterEmail()) {
       if (settings.getRequireMatchingAuthorEmailRegexp().isPresent()) {
-        return compile(sbccRenderer.render(settings.getRequireMatchingAuthorEmailRegexp().get()))
+        return getPattern(sbccRenderer.render(settings.getRequireMatchingAuthorEmailRegexp().get()))
             .matcher(sbccChangeSet.getCommitter().getEmailAddress())
             .find();
       }
@@ -117,10 +148,12 @@ public class CommitMessageValidator {
   public Map<SbccGroup, SbccMatch> validateChangeSetForGroups(
       SbccSettings settings, final SbccChangeSet sbccChangeSet) {
     final Map<SbccGroup, SbccMatch> allMatching = newTreeMap();
+    final Set<String> matchingRegexps =
+        settings.getRuleMatcher().findMatching(sbccChangeSet.getMessage());
     for (final SbccGroup group : settings.getGroups()) {
       final List<SbccRule> matchingRules = newArrayList();
       for (final SbccRule rule : group.getRules()) {
-        if (compile(rule.getRegexp()).matcher(sbccChangeSet.getMessage()).find()) {
+        if (matchingRegexps.contains(rule.getRegexp())) {
           matchingRules.add(rule);
         }
       }
@@ -0,0 +1,103 @@
+package se.bjurr.sbcc;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static se.bjurr.sbcc.JiraCircuitBreaker.State.CLOSED;
+import static se.bjurr.sbcc.JiraCircuitBreaker.State.HALF_OPEN;
+import static se.bjurr.sbcc.JiraCircuitBreaker.State.OPEN;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calling JIRA after a number of failed, or slow, calls in a row. After a while one call is
+ * let through, to probe if JIRA is back.
+ */
+public class JiraCircuitBreaker {
+  public enum State {
+    /** JIRA is called. */
+    CLOSED,
+    /** JIRA is not called. */
+    OPEN,
+    /** One call is let through, to see if JIRA is back. */
+    HALF_OPEN
+  }
+
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  public static final int DEFAULT_SLOW_CALL_SECONDS = 10;
+  public static final int DEFAULT_OPEN_SECONDS = 30;
+
+  private final Logger logger = LoggerFactory.getLogger(JiraCircuitBreaker.class);
+
+  private final int failureThreshold;
+  private final long slowCallNanos;
+  private final long openNanos;
+
+  private State state = CLOSED;
+  private int failures;
+  private long openedAt;
+  private boolean probing;
+
+  public JiraCircuitBreaker(int failureThreshold, long slowCallNanos, long openNanos) {
+    this.failureThreshold = failureThreshold;
+    this.slowCallNanos = slowCallNanos;
+    this.openNanos = openNanos;
+  }
+
+  /** @return true if JIRA may be called, the outcome must then be reported. */
+  public synchronized boolean allowRequest() {
+    if (state == OPEN && nanoTime() - openedAt >= openNanos) {
+      setState(HALF_OPEN);
+    }
+    if (state == HALF_OPEN) {
+      if (probing) {
+        return false;
+      }
+      probing = true;
+      return true;
+    }
+    return state == CLOSED;
+  }
+
+  public synchronized void onSuccess(long durationNanos) {
+    if (durationNanos > slowCallNanos) {
+      logger.warn("JIRA answered in " + NANOSECONDS.toMillis(durationNanos) + "ms");
+      onFailure();
+      return;
+    }
+    probing = false;
+    failures = 0;
+    if (state != CLOSED) {
+      setState(CLOSED);
+    }
+  }
+
+  public synchronized void onFailure() {
+    probing = false;
+    failures++;
+    if (state == HALF_OPEN || (state == CLOSED && failures >= failureThreshold)) {
+      openedAt = nanoTime();
+      setState(OPEN);
+    }
+  }
+
+  /** The call failed, but not because of JIRA. Neither a failure nor a success. */
+  public synchronized void onClientError() {
+    probing = false;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  private void setState(State state) {
+    logger.warn(
+        "JIRA circuit breaker " + this.state + " -> " + state + ", " + failures + " failures");
+    this.state = state;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "JIRA circuit breaker " + state + ", " + failures + " failures in a row";
+  }
+}
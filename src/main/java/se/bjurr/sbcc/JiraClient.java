@@ -2,39 +2,361 @@ package se.bjurr.sbcc;
 
 import static com.atlassian.sal.api.net.Request.MethodType.GET;
 import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.cache.CacheBuilder.newBuilder;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Lists.partition;
+import static java.lang.System.nanoTime;
 import static java.net.URLEncoder.encode;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static se.bjurr.sbcc.JiraCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+import static se.bjurr.sbcc.JiraCircuitBreaker.DEFAULT_OPEN_SECONDS;
+import static se.bjurr.sbcc.JiraCircuitBreaker.DEFAULT_SLOW_CALL_SECONDS;
 
 import com.atlassian.applinks.api.ApplicationLinkService;
 import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.applinks.api.application.jira.JiraApplicationType;
 import com.atlassian.sal.api.net.ResponseException;
+import com.atlassian.sal.api.net.ResponseStatusException;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class JiraClient {
+  private static final int ISSUES_PER_SEARCH = 100;
+  static final int POSITIVE_RESULTS_MINUTES = 10;
+
   private Logger logger = LoggerFactory.getLogger(JiraClient.class);
 
+  /** Queries with results, the issues are not likely to stop matching within a push or two. */
+  private final Cache<String, Integer> positiveResults =
+      newBuilder() //
+          .maximumSize(10000) //
+          .expireAfterWrite(POSITIVE_RESULTS_MINUTES, MINUTES) //
+          .build();
+
+  /** Queries without results, kept shorter so that fixing the issue in JIRA is noticed soon. */
+  private final Cache<String, Integer> negativeResults =
+      newBuilder() //
+          .maximumSize(10000) //
+          .expireAfterWrite(30, SECONDS) //
+          .build();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private volatile JiraCircuitBreaker circuitBreaker =
+      new JiraCircuitBreaker(
+          DEFAULT_FAILURE_THRESHOLD,
+          SECONDS.toNanos(DEFAULT_SLOW_CALL_SECONDS),
+          SECONDS.toNanos(DEFAULT_OPEN_SECONDS));
+
   public int getNumberOfJqlResults(
       ApplicationLinkService applicationLinkService, String jqlCheckQuery)
-      throws CredentialsRequiredException, UnsupportedEncodingException, ResponseException {
+      throws CredentialsRequiredException, UnsupportedEncodingException, ResponseException,
+          JiraUnavailableException {
+    Integer cached = positiveResults.getIfPresent(jqlCheckQuery);
+    if (cached == null) {
+      cached = negativeResults.getIfPresent(jqlCheckQuery);
+    }
+    if (cached != null) {
+      hits.incrementAndGet();
+      return cached;
+    }
+    misses.incrementAndGet();
     try {
-      String json = invokeJira(applicationLinkService, jqlCheckQuery);
-      JsonObject response = new JsonParser().parse(json).getAsJsonObject();
-      return response.get("issues").getAsJsonArray().size();
+      int numberOfResults =
+          parseSearchResponse(callJira(applicationLinkService, jqlCheckQuery, null)).getTotal();
+      if (numberOfResults > 0) {
+        positiveResults.put(jqlCheckQuery, numberOfResults);
+      } else {
+        negativeResults.put(jqlCheckQuery, numberOfResults);
+      }
+      return numberOfResults;
+    } catch (JiraUnavailableException e) {
+      throw e;
     } catch (Exception e) {
+      // Not cached, JIRA may be back on next push.
       logger.error(e.getMessage(), e);
       return 0;
     }
   }
 
+  /**
+   * Finds the issues, of the given issues, that matches the query. The issues are searched with
+   * key in (...) AND (query), a few at a time. Issues checked recently are not searched again.
+   *
+   * @return the matching issue keys, upper case.
+   */
+  public Set<String> getMatchingIssues(
+      ApplicationLinkService applicationLinkService, String jqlQuery, Collection<String> issues)
+      throws JiraUnavailableException {
+    Set<String> matching = new TreeSet<>();
+    List<String> toSearch = newArrayList();
+    for (String issue : issues) {
+      String key = issue.toUpperCase();
+      Integer cached = positiveResults.getIfPresent(getIssueQuery(key, jqlQuery));
+      if (cached == null) {
+        cached = negativeResults.getIfPresent(getIssueQuery(key, jqlQuery));
+      }
+      if (cached == null) {
+        misses.incrementAndGet();
+        toSearch.add(key);
+      } else {
+        hits.incrementAndGet();
+        if (cached > 0) {
+          matching.add(key);
+        }
+      }
+    }
+    for (List<String> batch : partition(toSearch, ISSUES_PER_SEARCH)) {
+      String batchQuery = getIssuesQuery(batch, jqlQuery);
+      try {
+        Set<String> found = searchIssueKeys(applicationLinkService, batchQuery);
+        for (String key : batch) {
+          if (found.contains(key)) {
+            matching.add(key);
+            positiveResults.put(getIssueQuery(key, jqlQuery), 1);
+          } else {
+            negativeResults.put(getIssueQuery(key, jqlQuery), 0);
+          }
+        }
+      } catch (JiraUnavailableException e) {
+        throw e;
+      } catch (Exception e) {
+        // Not cached, JIRA may be back on next push.
+        logger.error(e.getMessage(), e);
+      }
+    }
+    return matching;
+  }
+
+  /** The query that is used, and reported, for a single issue when batching. */
+  public static String getIssueQuery(String issue, String jqlQuery) {
+    return constrain("key = " + quote(issue), jqlQuery);
+  }
+
+  private static String getIssuesQuery(List<String> issues, String jqlQuery) {
+    List<String> quoted = newArrayList();
+    for (String issue : issues) {
+      quoted.add(quote(issue));
+    }
+    return constrain("key in (" + Joiner.on(", ").join(quoted) + ")", jqlQuery);
+  }
+
+  private static String constrain(String keyQuery, String jqlQuery) {
+    if (jqlQuery.isEmpty()) {
+      return keyQuery;
+    }
+    return keyQuery + " AND (" + jqlQuery + ")";
+  }
+
+  private static String quote(String issue) {
+    return "\"" + issue.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  private Set<String> searchIssueKeys(
+      ApplicationLinkService applicationLinkService, String jqlQuery)
+      throws Exception {
+    Set<String> found = new TreeSet<>();
+    int startAt = 0;
+    while (true) {
+      SearchResponse response =
+          parseSearchResponse(callJira(applicationLinkService, jqlQuery, startAt));
+      for (String key : response.keys) {
+        found.add(key.toUpperCase());
+      }
+      startAt += response.issues;
+      if (response.issues == 0 || startAt >= response.getTotal()) {
+        return found;
+      }
+    }
+  }
+
+  /**
+   * Calls JIRA through the circuit breaker.
+   *
+   * @param startAt null to only get the total.
+   */
+  private String callJira(
+      ApplicationLinkService applicationLinkService, String jqlQuery, Integer startAt)
+      throws Exception {
+    JiraCircuitBreaker circuitBreaker = this.circuitBreaker;
+    if (!circuitBreaker.allowRequest()) {
+      throw new JiraUnavailableException(circuitBreaker + ", not querying: " + jqlQuery);
+    }
+    long start = nanoTime();
+    try {
+      String json =
+          startAt == null
+              ? invokeJira(applicationLinkService, jqlQuery)
+              : invokeJira(applicationLinkService, jqlQuery, startAt);
+      circuitBreaker.onSuccess(nanoTime() - start);
+      return json;
+    } catch (Exception e) {
+      if (isClientError(e)) {
+        circuitBreaker.onClientError();
+      } else {
+        circuitBreaker.onFailure();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * A bad query, like one for an issue that does not exist, or missing credentials, does not mean
+   * that JIRA is down. Timeouts and too many requests does.
+   */
+  private static boolean isClientError(Exception e) {
+    if (e instanceof CredentialsRequiredException) {
+      return true;
+    }
+    if (e instanceof ResponseStatusException) {
+      int status = ((ResponseStatusException) e).getResponse().getStatusCode();
+      return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+    return false;
+  }
+
+  /**
+   * Reads only the total and the issue keys, with a streaming parser, ignoring everything else in
+   * the response.
+   */
+  private static SearchResponse parseSearchResponse(String json) throws IOException {
+    SearchResponse response = new SearchResponse();
+    JsonReader reader = new JsonReader(new StringReader(json));
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("total")) {
+          response.total = reader.nextInt();
+        } else if (name.equals("issues")) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            response.issues++;
+            String key = readIssueKey(reader);
+            if (key != null) {
+              response.keys.add(key);
+            }
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } finally {
+      reader.close();
+    }
+    return response;
+  }
+
+  private static String readIssueKey(JsonReader reader) throws IOException {
+    String key = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals("key")) {
+        key = reader.nextString();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return key;
+  }
+
+  private static class SearchResponse {
+    private int total = -1;
+    private int issues;
+    private final List<String> keys = newArrayList();
+
+    /** Total number of matching issues, or the number of issues if total was not given. */
+    private int getTotal() {
+      return total == -1 ? issues : total;
+    }
+  }
+
+  /**
+   * Hits and misses of the JQL result cache, since the plugin was started, the number of cached
+   * queries and the state of the circuit breaker.
+   */
+  public Map<String, Object> getCacheStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("hits", hits.get());
+    stats.put("misses", misses.get());
+    stats.put("cachedWithResults", positiveResults.size());
+    stats.put("cachedWithoutResults", negativeResults.size());
+    stats.put("circuitBreaker", circuitBreaker.getState().name());
+    return stats;
+  }
+
+  public JiraCircuitBreaker.State getCircuitBreakerState() {
+    return circuitBreaker.getState();
+  }
+
+  /** Replaces the circuit breaker, and its state, with one using other thresholds. */
+  public void setCircuitBreaker(JiraCircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  @VisibleForTesting
+  long getCacheHits() {
+    return hits.get();
+  }
+
+  @VisibleForTesting
+  long getCacheMisses() {
+    return misses.get();
+  }
+
+  /** Only the total is needed, so a single issue, with only its key, is requested. */
   @VisibleForTesting
   protected String invokeJira(ApplicationLinkService applicationLinkService, String jqlCheckQuery)
       throws UnsupportedEncodingException, ResponseException, CredentialsRequiredException {
-    String restPath = "/rest/api/2/search?jql=" + encode(jqlCheckQuery, UTF_8.name());
+    String restPath =
+        "/rest/api/2/search?jql="
+            + encode(jqlCheckQuery, UTF_8.name())
+            + "&maxResults=1&fields=key";
+    String json =
+        applicationLinkService
+            .getPrimaryApplicationLink(JiraApplicationType.class)
+            .createAuthenticatedRequestFactory()
+            .createRequest(GET, restPath)
+            .execute();
+    logger.debug(restPath + "\n\n <<< " + json);
+    return json;
+  }
+
+  /**
+   * One page of issue keys. Keys that does not exist are only warned about by JIRA, instead of
+   * failing the whole search.
+   */
+  @VisibleForTesting
+  protected String invokeJira(
+      ApplicationLinkService applicationLinkService, String jqlQuery, int startAt)
+      throws UnsupportedEncodingException, ResponseException, CredentialsRequiredException {
+    String restPath =
+        "/rest/api/2/search?jql="
+            + encode(jqlQuery, UTF_8.name())
+            + "&startAt="
+            + startAt
+            + "&maxResults="
+            + ISSUES_PER_SEARCH
+            + "&fields=key&validateQuery=warn";
     String json =
         applicationLinkService
             .getPrimaryApplicationLink(JiraApplicationType.class)
@@ -0,0 +1,10 @@
+package se.bjurr.sbcc;
+
+/** JIRA is not called, because it has been failing. */
+public class JiraUnavailableException extends Exception {
+  private static final long serialVersionUID = -3318398727468419620L;
+
+  public JiraUnavailableException(String message) {
+    super(message);
+  }
+}
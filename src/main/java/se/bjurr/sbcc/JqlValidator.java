@@ -1,63 +1,282 @@
 package se.bjurr.sbcc;
 
 import static com.google.common.collect.Lists.newArrayList;
-import static java.lang.Boolean.FALSE;
-import static java.lang.Boolean.TRUE;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+import static se.bjurr.sbcc.JiraClient.getIssueQuery;
 
 import com.atlassian.applinks.api.ApplicationLinkService;
 import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.sal.api.net.ResponseException;
 import com.google.common.annotations.VisibleForTesting;
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
 import se.bjurr.sbcc.data.SbccChangeSet;
 import se.bjurr.sbcc.settings.SbccSettings;
 
+/**
+ * Validates JQL for the commits of one push. Queries are rendered on the pushing thread, and run
+ * in the background, at most {@link SbccSettings#getJqlMaxConcurrency()} at a time. The results
+ * are joined, within {@link SbccSettings#getJqlTimeout()}, when all commits have been added.
+ */
 public class JqlValidator {
+  private static Logger logger = Logger.getLogger(JqlValidator.class.getName());
+  private static final long NO_DEADLINE = -1;
+
   private final SbccSettings settings;
   private final SbccRenderer renderer;
   private final ApplicationLinkService applicationLinkService;
+  private final ExecutorService executorService;
+  private final Semaphore concurrency;
+  private final long deadline;
   private static JiraClient jiraClient = new JiraClient();
+  /** Rendered queries, and the running validation of them, per commit id. */
+  private final Map<String, List<String>> queries = new LinkedHashMap<>();
+
+  private final Map<String, Future<List<String>>> pending = new LinkedHashMap<>();
+  /** Rendered query, per commit, and the issues of the commit, when batching. */
+  private final Map<String, String> batchedQueries = new LinkedHashMap<>();
+
+  private final Map<String, Set<String>> batchedIssues = new LinkedHashMap<>();
+  /** Commits that could not be checked, because of timeout or JIRA being unavailable. */
+  private final Set<String> notChecked = new HashSet<>();
 
   public JqlValidator(
-      ApplicationLinkService applicationLinkService, SbccSettings settings, SbccRenderer renderer) {
+      ApplicationLinkService applicationLinkService,
+      SbccSettings settings,
+      SbccRenderer renderer,
+      ExecutorService executorService) {
     this.settings = settings;
     this.renderer = renderer;
     this.applicationLinkService = applicationLinkService;
+    this.executorService = executorService;
+    this.concurrency = new Semaphore(settings.getJqlMaxConcurrency());
+    if (settings.getJqlTimeout() > 0) {
+      this.deadline = nanoTime() + SECONDS.toNanos(settings.getJqlTimeout());
+    } else {
+      this.deadline = NO_DEADLINE;
+    }
   }
 
-  public List<String> validateJql(SbccChangeSet sbccChangeSet)
-      throws CredentialsRequiredException, UnsupportedEncodingException, ResponseException {
-    List<String> failingJqls = newArrayList();
+  /**
+   * Renders the queries of the commit and starts validating them. The result is available from
+   * {@link #getFailingJql()}.
+   */
+  public void addJql(SbccChangeSet sbccChangeSet) {
     if (!settings.shouldCheckJql()) {
-      return failingJqls;
+      return;
     }
+    final List<String> renderedQueries = newArrayList();
     if (settings.getCommitRegexp().isPresent()) {
-      for (String renderedJqlQUery :
+      renderedQueries.addAll(
           renderer.renderAll(
               SbccRenderer.SBCCVariable.REGEXP,
               settings.getCommitRegexp().get(),
               sbccChangeSet,
-              settings.getJqlCheckQuery())) {
-        if (addJqlQuery(failingJqls, renderedJqlQUery)) {
-          return newArrayList();
+              settings.getJqlCheckQuery()));
+    } else {
+      renderedQueries.add(renderer.render(settings.getJqlCheckQuery()));
+    }
+    queries.put(sbccChangeSet.getId(), renderedQueries);
+    pending.put(
+        sbccChangeSet.getId(),
+        submit(
+            new Callable<List<String>>() {
+              @Override
+              public List<String> call() throws Exception {
+                return validateJql(renderedQueries);
+              }
+            }));
+  }
+
+  /** @return failing queries per commit id, for every commit added since last call. */
+  public Map<String, List<String>> getFailingJql() {
+    Map<String, List<String>> failingJqls = new HashMap<>();
+    for (String commit : pending.keySet()) {
+      List<String> failing = await(pending.get(commit));
+      if (failing == null) {
+        notChecked.add(commit);
+        failing = settings.shouldAcceptJqlOnTimeout() ? newArrayList() : queries.get(commit);
+      }
+      failingJqls.put(commit, failing);
+    }
+    pending.clear();
+    queries.clear();
+    return failingJqls;
+  }
+
+  /**
+   * Remembers the issues of the commit, to be validated with all other commits of the push in
+   * {@link #validateBatchedJql()}.
+   */
+  public void addToBatch(SbccChangeSet sbccChangeSet) {
+    if (!settings.shouldCheckJql()) {
+      return;
+    }
+    Set<String> issues = new LinkedHashSet<>();
+    for (String issue :
+        SbccRenderer.SBCCVariable.REGEXP.resolveAll(
+            settings.getCommitRegexp().get(), sbccChangeSet)) {
+      issues.add(issue.toUpperCase());
+    }
+    batchedQueries.put(sbccChangeSet.getId(), renderer.render(settings.getJqlCheckQuery()));
+    batchedIssues.put(sbccChangeSet.getId(), issues);
+  }
+
+  /**
+   * Queries JIRA once for all distinct issues, per distinct rendered query, of the batched commits.
+   *
+   * @return failing queries per commit id, for every batched commit.
+   */
+  public Map<String, List<String>> validateBatchedJql() {
+    Map<String, Set<String>> issuesPerQuery = new LinkedHashMap<>();
+    for (String commit : batchedQueries.keySet()) {
+      String query = batchedQueries.get(commit);
+      if (!issuesPerQuery.containsKey(query)) {
+        issuesPerQuery.put(query, new TreeSet<String>());
+      }
+      issuesPerQuery.get(query).addAll(batchedIssues.get(commit));
+    }
+
+    Map<String, Future<Set<String>>> searches = new LinkedHashMap<>();
+    for (final String query : issuesPerQuery.keySet()) {
+      final Set<String> issues = issuesPerQuery.get(query);
+      searches.put(
+          query,
+          submit(
+              new Callable<Set<String>>() {
+                @Override
+                public Set<String> call() throws JiraUnavailableException {
+                  return jiraClient.getMatchingIssues(applicationLinkService, query, issues);
+                }
+              }));
+    }
+    Map<String, Set<String>> matchingPerQuery = new HashMap<>();
+    Set<String> notCheckedQueries = new HashSet<>();
+    for (String query : searches.keySet()) {
+      Set<String> matching = await(searches.get(query));
+      if (matching == null) {
+        notCheckedQueries.add(query);
+        matching = settings.shouldAcceptJqlOnTimeout() ? issuesPerQuery.get(query) : null;
+      }
+      matchingPerQuery.put(query, matching == null ? new TreeSet<String>() : matching);
+    }
+
+    Map<String, List<String>> failingJqls = new HashMap<>();
+    for (String commit : batchedQueries.keySet()) {
+      String query = batchedQueries.get(commit);
+      if (notCheckedQueries.contains(query)) {
+        notChecked.add(commit);
+      }
+      List<String> failing = newArrayList();
+      for (String issue : batchedIssues.get(commit)) {
+        if (matchingPerQuery.get(query).contains(issue)) {
+          failing.clear();
+          break;
         }
+        failing.add(getIssueQuery(issue, query));
       }
-    } else {
-      if (addJqlQuery(failingJqls, renderer.render(settings.getJqlCheckQuery()))) {
+      failingJqls.put(commit, failing);
+    }
+    batchedQueries.clear();
+    batchedIssues.clear();
+    return failingJqls;
+  }
+
+  /** @return false if the JQL of the commit could not be checked, and the policy was used. */
+  public boolean wasChecked(String commitId) {
+    return !notChecked.contains(commitId);
+  }
+
+  public boolean wasAllChecked() {
+    return notChecked.isEmpty();
+  }
+
+  private List<String> validateJql(List<String> renderedQueries)
+      throws CredentialsRequiredException, UnsupportedEncodingException, ResponseException,
+          JiraUnavailableException {
+    for (String renderedQuery : renderedQueries) {
+      if (jiraClient.getNumberOfJqlResults(applicationLinkService, renderedQuery) > 0) {
         return newArrayList();
       }
     }
-    return failingJqls;
+    return renderedQueries;
+  }
+
+  /** @return null if the task could not be started before the deadline. */
+  private <T> Future<T> submit(final Callable<T> callable) {
+    try {
+      if (deadline == NO_DEADLINE) {
+        concurrency.acquire();
+      } else if (!concurrency.tryAcquire(deadline - nanoTime(), NANOSECONDS)) {
+        return null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    return executorService.submit(
+        new Callable<T>() {
+          @Override
+          public T call() throws Exception {
+            try {
+              return callable.call();
+            } finally {
+              concurrency.release();
+            }
+          }
+        });
   }
 
-  private Boolean addJqlQuery(List<String> failingJqls, String renderedJqlQUery)
-      throws CredentialsRequiredException, UnsupportedEncodingException, ResponseException {
-    if (jiraClient.getNumberOfJqlResults(applicationLinkService, renderedJqlQUery) > 0) {
-      return TRUE;
+  /** @return null if the task did not finish before the deadline. */
+  private <T> T await(Future<T> future) {
+    if (future == null) {
+      logger.log(WARNING, "JQL not checked, timeout of " + settings.getJqlTimeout() + "s passed");
+      return null;
     }
-    failingJqls.add(renderedJqlQUery);
-    return FALSE;
+    try {
+      if (deadline == NO_DEADLINE) {
+        return future.get();
+      }
+      return future.get(deadline - nanoTime(), NANOSECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      logger.log(WARNING, "JQL not checked, timeout of " + settings.getJqlTimeout() + "s passed");
+      return null;
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof JiraUnavailableException) {
+        logger.log(WARNING, "JQL not checked. " + e.getCause().getMessage());
+      } else {
+        logger.log(SEVERE, "JQL could not be checked", e.getCause());
+      }
+      return null;
+    }
+  }
+
+  /** The client shared by all pushes, with its cache. */
+  public static JiraClient getJiraClient() {
+    return jiraClient;
   }
 
   @VisibleForTesting
@@ -1,30 +1,57 @@
 package se.bjurr.sbcc;
 
 import static com.atlassian.bitbucket.repository.RefChangeType.DELETE;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static java.util.logging.Level.INFO;
-import static java.util.regex.Pattern.compile;
+import static se.bjurr.sbcc.CommitMessageValidator.shouldValidateAuthorsInBitbucket;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketEmail;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketName;
+import static se.bjurr.sbcc.commits.ChangeSetsService.isNote;
 import static se.bjurr.sbcc.commits.ChangeSetsService.isTag;
+import static se.bjurr.sbcc.settings.SbccPatterns.getPattern;
 
 import com.atlassian.applinks.api.ApplicationLinkService;
 import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.bitbucket.auth.AuthenticationContext;
-import com.atlassian.bitbucket.repository.RefChangeType;
+import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.sal.api.net.ResponseException;
+import com.google.common.base.Optional;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import se.bjurr.sbcc.commits.ChangeSetConsumer;
 import se.bjurr.sbcc.commits.ChangeSetsService;
 import se.bjurr.sbcc.data.SbccChangeSet;
+import se.bjurr.sbcc.data.SbccChangeSetVerificationResult;
 import se.bjurr.sbcc.data.SbccRefChangeVerificationResult;
 import se.bjurr.sbcc.data.SbccVerificationResult;
 import se.bjurr.sbcc.settings.SbccSettings;
 
 public class RefChangeValidator {
   private static Logger logger = Logger.getLogger(RefChangeValidator.class.getName());
+  /** Share of the commits, above the maximum number of commits, that are sampled. */
+  private static final int SAMPLE_ONE_IN = 10;
+  /** Commits that are checked together, by one thread with one renderer, when in parallel. */
+  private static final int CHECK_CHUNK_SIZE = 32;
+  /**
+   * Chunks that may be checked in parallel, before their results are merged. At most 512 commits
+   * are pending, and may be checked after fail fast has enough errors.
+   */
+  private static final int MAX_PENDING_CHUNKS = 16;
 
   private final SbccSettings settings;
   private final ChangeSetsService changesetsService;
@@ -37,6 +64,24 @@ public class RefChangeValidator {
 
   private final Repository fromRepository;
 
+  private final SbccVerifiedCommits sbccVerifiedCommits;
+
+  private final SbccExecutors sbccExecutors;
+  /** Branches and commits, of this push, that are rejected so far. Not including JQL. */
+  private int errors;
+  /** Walked commits, and if they are above the maximum, when there is a maximum. */
+  private final Map<String, Boolean> aboveMaxCommits = new HashMap<>();
+
+  private final Set<String> sampledCommits = new HashSet<>();
+  /** Commits waiting to be checked, and chunks of commits being checked, oldest first. */
+  private List<ChangeSetToCheck> chunk = newArrayList();
+
+  private final Deque<PendingChunk> pendingChunks = new ArrayDeque<>();
+
+  private boolean multipleRefs;
+
+  private int checkedCommits;
+
   public RefChangeValidator(
       final Repository fromRepository,
       final SbccSettings settings,
@@ -44,68 +89,247 @@ public class RefChangeValidator {
       final AuthenticationContext bitbucketAuthenticationContext,
       final SbccRenderer sbccRenderer,
       final ApplicationLinkService applicationLinkService,
-      final SbccUserAdminService sbccUserAdminService) {
+      final SbccUserAdminService sbccUserAdminService,
+      final SbccExecutors sbccExecutors,
+      final SbccVerifiedCommits sbccVerifiedCommits) {
     this.fromRepository = fromRepository;
+    this.sbccVerifiedCommits = sbccVerifiedCommits;
+    this.sbccExecutors = sbccExecutors;
     this.settings = settings;
     this.changesetsService = changesetsService;
     this.bitbucketAuthenticationContext = bitbucketAuthenticationContext;
     this.commitMessageValidator =
         new CommitMessageValidator(bitbucketAuthenticationContext, sbccUserAdminService);
     this.sbccRenderer = sbccRenderer;
-    this.jqlValidator = new JqlValidator(applicationLinkService, settings, sbccRenderer);
+    this.jqlValidator =
+        new JqlValidator(
+            applicationLinkService, settings, sbccRenderer, sbccExecutors.getJqlExecutor());
   }
 
-  public void validateRefChange(
-      final SbccVerificationResult refChangeVerificationResult,
-      final RefChangeType refChangeType,
-      final String refId,
-      final String fromHash,
-      final String toHash)
+  public void validateRefChanges(
+      final SbccVerificationResult refChangeVerificationResult, final List<RefChange> refChanges)
       throws IOException, CredentialsRequiredException, ResponseException, ExecutionException {
-    logger.log(
-        INFO,
-        getBitbucketName(bitbucketAuthenticationContext)
-            + " "
-            + getBitbucketEmail(bitbucketAuthenticationContext)
-            + "> RefChange "
-            + fromHash
-            + " "
-            + refId
-            + " "
-            + toHash
-            + " "
-            + refChangeType);
-    if (compile(settings.getBranches().or(".*")).matcher(refId).find()) {
-      if (refChangeType != DELETE) {
-        final List<SbccChangeSet> refChangeSets =
-            changesetsService.getNewChangeSets(
-                settings, fromRepository, refId, refChangeType, toHash);
-        validateRefChange(refChangeVerificationResult, refId, fromHash, toHash, refChangeSets);
+    final List<RefChange> refChangesToValidate = newArrayList();
+    for (final RefChange refChange : refChanges) {
+      final String refId = refChange.getRef().getId();
+      final boolean isNote = isNote(refId);
+      if (isNote || isTag(refId) && settings.shouldExcludeTagCommits()) {
+        continue;
+      }
+      logger.log(
+          INFO,
+          getBitbucketName(bitbucketAuthenticationContext)
+              + " "
+              + getBitbucketEmail(bitbucketAuthenticationContext)
+              + "> RefChange "
+              + refChange.getFromHash()
+              + " "
+              + refId
+              + " "
+              + refChange.getToHash()
+              + " "
+              + refChange.getType());
+      if (getPattern(settings.getBranches().or(".*")).matcher(refId).find()) {
+        if (refChange.getType() != DELETE) {
+          refChangesToValidate.add(refChange);
+        }
+      }
+    }
+    if (refChangesToValidate.isEmpty()) {
+      return;
+    }
+
+    final Map<String, SbccRefChangeVerificationResult> refChangeResults = new LinkedHashMap<>();
+    for (final RefChange refChange : refChangesToValidate) {
+      final String refId = refChange.getRef().getId();
+      refChangeResults.put(
+          refId, newRefChangeResult(refId, refChange.getFromHash(), refChange.getToHash()));
+    }
+    for (final SbccRefChangeVerificationResult refChangeResult : refChangeResults.values()) {
+      if (!refChangeResult.isBranchNameValid()) {
+        errors++;
+      }
+    }
+    multipleRefs = refChangesToValidate.size() > 1;
+    try {
+      if (!shouldStop()) {
+        streamChangeSets(refChangesToValidate, refChangeResults, refChangeVerificationResult);
+      }
+      if (!chunk.isEmpty()) {
+        startChunk();
+      }
+      while (!pendingChunks.isEmpty()) {
+        mergeChunk(pendingChunks.poll());
+      }
+    } finally {
+      for (final PendingChunk pendingChunk : pendingChunks) {
+        pendingChunk.check.cancel(true);
+      }
+    }
+    refChangeVerificationResult.setFailedFast(shouldStop());
+    if (settings.shouldCheckCommitSize()) {
+      checkCommitSizes(refChangeResults);
+    }
+    if (settings.getCommitDiffRegexp().isPresent()) {
+      checkCommitDiffs(refChangeResults);
+    }
+
+    final Map<String, List<String>> failingJqls =
+        shouldBatchJql() ? jqlValidator.validateBatchedJql() : jqlValidator.getFailingJql();
+    if (!failingJqls.isEmpty()) {
+      for (final SbccRefChangeVerificationResult refChangeResult : refChangeResults.values()) {
+        for (final SbccChangeSet sbccChangeSet : refChangeResult.getSbccChangeSets().keySet()) {
+          if (failingJqls.containsKey(sbccChangeSet.getId())) {
+            refChangeResult.setFailingJql(sbccChangeSet, failingJqls.get(sbccChangeSet.getId()));
+          }
+        }
+      }
+    }
+
+    for (final SbccRefChangeVerificationResult refChangeResult : refChangeResults.values()) {
+      setVerified(refChangeResult);
+      if (refChangeResult.hasReportables()) {
+        refChangeVerificationResult.add(refChangeResult);
       }
     }
   }
 
-  private void validateRefChange(
-      final SbccVerificationResult refChangeVerificationResult,
-      final String refId,
-      final String fromHash,
-      final String toHash,
-      final List<SbccChangeSet> refChangeSets)
-      throws IOException, CredentialsRequiredException, ResponseException, ExecutionException {
-    final SbccRefChangeVerificationResult refChangeVerificationResults =
-        validateRefChange(refChangeSets, settings, refId, fromHash, toHash);
-    if (refChangeVerificationResults.hasReportables()) {
-      refChangeVerificationResult.add(refChangeVerificationResults);
+  private void streamChangeSets(
+      final List<RefChange> refChangesToValidate,
+      final Map<String, SbccRefChangeVerificationResult> refChangeResults,
+      final SbccVerificationResult refChangeVerificationResult)
+      throws IOException, ExecutionException {
+    changesetsService.streamNewChangeSets(
+        settings,
+        fromRepository,
+        refChangesToValidate,
+        sbccExecutors.getGitExecutor(),
+        new ChangeSetConsumer() {
+          @Override
+          public boolean accept(final String refId, final SbccChangeSet sbccChangeSet)
+              throws IOException, ExecutionException {
+            if (isAboveMaxCommits(sbccChangeSet)) {
+              if (!settings.shouldSampleAboveMaxCommits()) {
+                refChangeVerificationResult.setTooManyCommits(true);
+                return false;
+              }
+              refChangeVerificationResult.setSampled(true);
+              if (!isSampled(sbccChangeSet)) {
+                return true;
+              }
+              sampledCommits.add(sbccChangeSet.getId());
+            }
+            if (refChangeResults.containsKey(refId)) {
+              validateChangeSet(refChangeResults.get(refId), sbccChangeSet);
+            }
+            return !shouldStop() && !isSampleFull();
+          }
+        });
+  }
+
+  /** @return false if some commit could not be fully validated, and the JQL policy was used. */
+  public boolean isComplete() {
+    return jqlValidator.wasAllChecked();
+  }
+
+  private void setVerified(final SbccRefChangeVerificationResult refChangeResult) {
+    for (final SbccChangeSet sbccChangeSet : refChangeResult.getSbccChangeSets().keySet()) {
+      if (!refChangeResult.getSbccChangeSets().get(sbccChangeSet).hasReportables()
+          && jqlValidator.wasChecked(sbccChangeSet.getId())) {
+        sbccVerifiedCommits.setVerified(
+            settings, bitbucketAuthenticationContext.getCurrentUser(), sbccChangeSet.getId());
+      }
     }
   }
 
-  private SbccRefChangeVerificationResult validateRefChange(
-      final List<SbccChangeSet> sbccChangeSets,
-      final SbccSettings settings,
-      final String refId,
-      final String fromHash,
-      final String toHash)
-      throws IOException, CredentialsRequiredException, ResponseException, ExecutionException {
+  /**
+   * Commits are numbered in the order they are walked, newest first. A commit keeps its number
+   * when it is given again for another ref. Annotated tags are not commits, they are not counted
+   * and always checked.
+   */
+  private boolean isAboveMaxCommits(final SbccChangeSet sbccChangeSet) {
+    if (!settings.hasMaxCommits() || sbccChangeSet.isTag()) {
+      return false;
+    }
+    Boolean above = aboveMaxCommits.get(sbccChangeSet.getId());
+    if (above == null) {
+      above = aboveMaxCommits.size() >= settings.getMaxCommits();
+      aboveMaxCommits.put(sbccChangeSet.getId(), above);
+    }
+    return above;
+  }
+
+  /** Deterministic, so that a rejected push is sampled the same way when tried again. */
+  private boolean isSampled(final SbccChangeSet sbccChangeSet) {
+    return sbccChangeSet.getId().hashCode() % SAMPLE_ONE_IN == 0;
+  }
+
+  /** At most as many commits as the maximum are sampled, in addition to the newest. */
+  private boolean isSampleFull() {
+    return settings.hasMaxCommits() && sampledCommits.size() >= settings.getMaxCommits();
+  }
+
+  /** True when fail fast is enabled and enough errors are found to reject the push. */
+  private boolean shouldStop() {
+    return settings.shouldFailFast() && errors >= settings.getFailFastErrors();
+  }
+
+  /** JQL, file sizes and diffs are checked for all commits at once, when the walk is done. */
+  private boolean hasChecksAfterWalk() {
+    return settings.shouldCheckJql()
+        || settings.shouldCheckCommitSize()
+        || settings.getCommitDiffRegexp().isPresent();
+  }
+
+  private void checkCommitSizes(
+      final Map<String, SbccRefChangeVerificationResult> refChangeResults) {
+    final Map<String, Map<String, Long>> largeFiles =
+        changesetsService.findLargeFiles(settings, fromRepository, getCommitIds(refChangeResults));
+    for (final SbccRefChangeVerificationResult refChangeResult : refChangeResults.values()) {
+      for (final SbccChangeSet sbccChangeSet : refChangeResult.getSbccChangeSets().keySet()) {
+        if (largeFiles.containsKey(sbccChangeSet.getId())) {
+          refChangeResult.addContentSizeValidationResult(
+              sbccChangeSet, largeFiles.get(sbccChangeSet.getId()));
+        }
+      }
+    }
+  }
+
+  private void checkCommitDiffs(
+      final Map<String, SbccRefChangeVerificationResult> refChangeResults) {
+    final Map<String, String> rejectedContent =
+        changesetsService.findRejectedContent(
+            settings, fromRepository, getCommitIds(refChangeResults));
+    for (final SbccRefChangeVerificationResult refChangeResult : refChangeResults.values()) {
+      for (final SbccChangeSet sbccChangeSet : refChangeResult.getSbccChangeSets().keySet()) {
+        if (rejectedContent.containsKey(sbccChangeSet.getId())) {
+          refChangeResult.addContentDiffValidationResult(
+              sbccChangeSet, Optional.of(rejectedContent.get(sbccChangeSet.getId())));
+        }
+      }
+    }
+  }
+
+  /** Commits, not tags, that are kept in the results after the walk. */
+  private Set<String> getCommitIds(
+      final Map<String, SbccRefChangeVerificationResult> refChangeResults) {
+    final Set<String> commitIds = new LinkedHashSet<>();
+    for (final SbccRefChangeVerificationResult refChangeResult : refChangeResults.values()) {
+      for (final SbccChangeSet sbccChangeSet : refChangeResult.getSbccChangeSets().keySet()) {
+        if (!sbccChangeSet.isTag()) {
+          commitIds.add(sbccChangeSet.getId());
+        }
+      }
+    }
+    return commitIds;
+  }
+
+  private boolean shouldBatchJql() {
+    return settings.shouldCheckJql() && settings.shouldBatchJql();
+  }
+
+  private SbccRefChangeVerificationResult newRefChangeResult(
+      final String refId, final String fromHash, final String toHash) {
     final SbccRefChangeVerificationResult refChangeVerificationResult =
         new SbccRefChangeVerificationResult(refId, fromHash, toHash);
 
@@ -113,60 +337,191 @@ public class RefChangeValidator {
       final boolean validateBranchName = validateBranchName(refId);
       refChangeVerificationResult.setBranchValidationResult(validateBranchName);
     }
+    return refChangeVerificationResult;
+  }
 
-    for (final SbccChangeSet sbccChangeSet : sbccChangeSets) {
-      sbccRenderer.setSbccChangeSet(sbccChangeSet);
-      logger.fine(
-          getBitbucketName(bitbucketAuthenticationContext)
-              + " "
-              + getBitbucketEmail(bitbucketAuthenticationContext)
-              + "> ChangeSet "
-              + sbccChangeSet.getId()
-              + " "
-              + sbccChangeSet.getMessage()
-              + " "
-              + sbccChangeSet.getCommitter().getEmailAddress()
-              + " "
-              + sbccChangeSet.getCommitter().getName());
+  /**
+   * Validates the commit into the result of its ref. The commit is only kept in the result if it
+   * has something to report, or if its JQL is not yet validated.
+   */
+  private void validateChangeSet(
+      final SbccRefChangeVerificationResult refChangeResult, final SbccChangeSet sbccChangeSet)
+      throws IOException, ExecutionException {
+    sbccRenderer.setSbccChangeSet(sbccChangeSet);
+    logger.fine(
+        getBitbucketName(bitbucketAuthenticationContext)
+            + " "
+            + getBitbucketEmail(bitbucketAuthenticationContext)
+            + "> ChangeSet "
+            + sbccChangeSet.getId()
+            + " "
+            + sbccChangeSet.getMessage()
+            + " "
+            + sbccChangeSet.getCommitter().getEmailAddress()
+            + " "
+            + sbccChangeSet.getCommitter().getName());
+
+    if (sbccChangeSet.isTag() && settings.shouldExcludeTagCommits()) {
+      sbccRenderer.setSbccChangeSet(null);
+      return;
+    }
+
+    if (sbccVerifiedCommits.isVerified(
+        settings, bitbucketAuthenticationContext.getCurrentUser(), sbccChangeSet.getId())) {
+      logger.fine("Already verified " + sbccChangeSet.getId());
+      sbccRenderer.setSbccChangeSet(null);
+      return;
+    }
+
+    if (shouldBatchJql()) {
+      jqlValidator.addToBatch(sbccChangeSet);
+    } else {
+      jqlValidator.addJql(sbccChangeSet);
+    }
+    sbccRenderer.setSbccChangeSet(null);
+
+    checkedCommits++;
+    chunk.add(new ChangeSetToCheck(refChangeResult, sbccChangeSet));
+    if (chunk.size() >= getChunkSize()) {
+      startChunk();
+    }
+  }
+
+  /** Commits are checked one by one, unless checked in parallel. */
+  private int getChunkSize() {
+    if (isParallel()) {
+      return CHECK_CHUNK_SIZE;
+    }
+    return 1;
+  }
+
+  /**
+   * True when checking in parallel is enabled and there are several refs in the push, or more
+   * commits than {@link SbccSettings#getParallelCommits()}. Commits are then checked in chunks on
+   * the validation pool. Else they are checked right away, one by one.
+   */
+  private boolean isParallel() {
+    return settings.shouldCheckInParallel()
+        && (multipleRefs || checkedCommits > settings.getParallelCommits());
+  }
+
+  private void startChunk() throws IOException, ExecutionException {
+    final List<ChangeSetToCheck> toCheck = chunk;
+    chunk = newArrayList();
+    final Future<List<SbccChangeSetVerificationResult>> check;
+    if (isParallel()) {
+      check =
+          sbccExecutors
+              .getValidationExecutor()
+              .submit(
+                  new Callable<List<SbccChangeSetVerificationResult>>() {
+                    @Override
+                    public List<SbccChangeSetVerificationResult> call() throws ExecutionException {
+                      return checkChangeSets(
+                          toCheck, new SbccRenderer(bitbucketAuthenticationContext));
+                    }
+                  });
+    } else {
+      check = immediateFuture(checkChangeSets(toCheck, sbccRenderer));
+    }
+    pendingChunks.add(new PendingChunk(toCheck, check));
+    while (pendingChunks.size() > (isParallel() ? MAX_PENDING_CHUNKS : 0)) {
+      mergeChunk(pendingChunks.poll());
+    }
+  }
 
-      if (sbccChangeSet.isTag() && settings.shouldExcludeTagCommits()) {
+  private List<SbccChangeSetVerificationResult> checkChangeSets(
+      final List<ChangeSetToCheck> toCheck, final SbccRenderer renderer)
+      throws ExecutionException {
+    if (shouldValidateAuthorsInBitbucket(settings)) {
+      final List<SbccChangeSet> sbccChangeSets = newArrayList();
+      for (final ChangeSetToCheck changeSetToCheck : toCheck) {
+        sbccChangeSets.add(changeSetToCheck.sbccChangeSet);
+      }
+      commitMessageValidator.resolveAuthorsInBitbucket(settings, sbccChangeSets);
+    }
+    final List<SbccChangeSetVerificationResult> changeSetResults = newArrayList();
+    for (final ChangeSetToCheck changeSetToCheck : toCheck) {
+      changeSetResults.add(checkChangeSet(changeSetToCheck.sbccChangeSet, renderer));
+    }
+    return changeSetResults;
+  }
+
+  /** Only uses the given renderer, so that commits can be checked on any thread. */
+  private SbccChangeSetVerificationResult checkChangeSet(
+      final SbccChangeSet sbccChangeSet, final SbccRenderer renderer) throws ExecutionException {
+    renderer.setSbccChangeSet(sbccChangeSet);
+    final SbccChangeSetVerificationResult changeSetResult = new SbccChangeSetVerificationResult();
+    changeSetResult.setGroupsResult(
+        commitMessageValidator.validateChangeSetForGroups(settings, sbccChangeSet));
+    changeSetResult.setEmailAuthorResult(
+        commitMessageValidator.validateChangeSetForAuthorEmail(settings, sbccChangeSet, renderer));
+    changeSetResult.setEmailCommitterResult(
+        commitMessageValidator.validateChangeSetForCommitterEmail(
+            settings, sbccChangeSet, renderer));
+    changeSetResult.setNameAuthorResult(
+        commitMessageValidator.validateChangeSetForAuthorName(settings, sbccChangeSet));
+    changeSetResult.setNameCommitterResult(
+        commitMessageValidator.validateChangeSetForCommitterName(settings, sbccChangeSet));
+    changeSetResult.addAuthorEmailInBitbucketValidationResult(
+        commitMessageValidator.validateChangeSetForAuthorEmailInBitbucket(settings, sbccChangeSet));
+    changeSetResult.addAuthorNameInBitbucketValidationResult(
+        commitMessageValidator.validateChangeSetForAuthorNameInBitbucket(settings, sbccChangeSet));
+    renderer.setSbccChangeSet(null);
+    return changeSetResult;
+  }
+
+  /** Adds the results of a checked chunk to their refs, on the pushing thread, in walk order. */
+  private void mergeChunk(final PendingChunk pendingChunk) throws IOException, ExecutionException {
+    final List<SbccChangeSetVerificationResult> changeSetResults;
+    try {
+      changeSetResults = pendingChunk.check.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while checking commits");
+    }
+    for (int i = 0; i < changeSetResults.size(); i++) {
+      final ChangeSetToCheck changeSetToCheck = pendingChunk.toCheck.get(i);
+      final SbccChangeSetVerificationResult changeSetResult = changeSetResults.get(i);
+      if (changeSetResult.hasErrors()) {
+        errors++;
+      }
+      if (!hasChecksAfterWalk() && !changeSetResult.hasReportables()) {
+        sbccVerifiedCommits.setVerified(
+            settings,
+            bitbucketAuthenticationContext.getCurrentUser(),
+            changeSetToCheck.sbccChangeSet.getId());
         continue;
       }
+      changeSetToCheck.refChangeResult.setChangeSetResult(
+          changeSetToCheck.sbccChangeSet, changeSetResult);
+    }
+  }
 
-      refChangeVerificationResult.setGroupsResult(
-          sbccChangeSet,
-          commitMessageValidator.validateChangeSetForGroups(settings, sbccChangeSet));
-      refChangeVerificationResult.addAuthorEmailValidationResult(
-          sbccChangeSet,
-          commitMessageValidator.validateChangeSetForAuthorEmail(
-              settings, sbccChangeSet, sbccRenderer));
-      refChangeVerificationResult.addCommitterEmailValidationResult(
-          sbccChangeSet,
-          commitMessageValidator.validateChangeSetForCommitterEmail(
-              settings, sbccChangeSet, sbccRenderer));
-      refChangeVerificationResult.addAuthorNameValidationResult(
-          sbccChangeSet,
-          commitMessageValidator.validateChangeSetForAuthorName(settings, sbccChangeSet));
-      refChangeVerificationResult.addCommitterNameValidationResult(
-          sbccChangeSet,
-          commitMessageValidator.validateChangeSetForCommitterName(settings, sbccChangeSet));
-      refChangeVerificationResult.addAuthorEmailInBitbucketValidationResult(
-          sbccChangeSet,
-          commitMessageValidator.validateChangeSetForAuthorEmailInBitbucket(
-              settings, sbccChangeSet));
-      refChangeVerificationResult.addAuthorNameInBitbucketValidationResult(
-          sbccChangeSet,
-          commitMessageValidator.validateChangeSetForAuthorNameInBitbucket(
-              settings, sbccChangeSet));
-
-      refChangeVerificationResult.setFailingJql(
-          sbccChangeSet, jqlValidator.validateJql(sbccChangeSet));
-      sbccRenderer.setSbccChangeSet(null);
+  private static class ChangeSetToCheck {
+    private final SbccRefChangeVerificationResult refChangeResult;
+    private final SbccChangeSet sbccChangeSet;
+
+    private ChangeSetToCheck(
+        final SbccRefChangeVerificationResult refChangeResult, final SbccChangeSet sbccChangeSet) {
+      this.refChangeResult = refChangeResult;
+      this.sbccChangeSet = sbccChangeSet;
+    }
+  }
+
+  private static class PendingChunk {
+    private final List<ChangeSetToCheck> toCheck;
+    private final Future<List<SbccChangeSetVerificationResult>> check;
+
+    private PendingChunk(
+        final List<ChangeSetToCheck> toCheck,
+        final Future<List<SbccChangeSetVerificationResult>> check) {
+      this.toCheck = toCheck;
+      this.check = check;
     }
-    return refChangeVerificationResult;
   }
 
   private boolean validateBranchName(final String branchName) {
-    return compile(settings.getBranchRejectionRegexp().or(".*")).matcher(branchName).find();
+    return getPattern(settings.getBranchRejectionRegexp().or(".*")).matcher(branchName).find();
   }
 }
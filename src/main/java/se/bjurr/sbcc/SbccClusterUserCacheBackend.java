@@ -0,0 +1,47 @@
+package se.bjurr.sbcc;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.atlassian.cache.Cache;
+import com.atlassian.cache.CacheFactory;
+import com.atlassian.cache.CacheSettingsBuilder;
+
+/**
+ * Answers shared by all nodes of a Data Center cluster, in a cache that is copied between the
+ * nodes. Removing the answers on one node removes them on all nodes. On a single node it is a local
+ * cache.
+ */
+public class SbccClusterUserCacheBackend implements SbccUserCacheBackend {
+  private static final String CACHE_NAME = SbccClusterUserCacheBackend.class.getName() + ".users";
+  static final int EXPIRE_MINUTES = 10;
+
+  private final Cache<String, Boolean> cache;
+
+  public SbccClusterUserCacheBackend(final CacheFactory cacheFactory) {
+    this.cache =
+        cacheFactory.<String, Boolean>getCache(
+            CACHE_NAME,
+            null,
+            new CacheSettingsBuilder() //
+                .remote() //
+                .replicateViaCopy() //
+                .maxEntries(30000) //
+                .expireAfterWrite(EXPIRE_MINUTES, MINUTES) //
+                .build());
+  }
+
+  @Override
+  public Boolean get(final String key) {
+    return this.cache.get(key);
+  }
+
+  @Override
+  public void put(final String key, final Boolean exists) {
+    this.cache.put(key, exists);
+  }
+
+  @Override
+  public void removeAll() {
+    this.cache.removeAll();
+  }
+}
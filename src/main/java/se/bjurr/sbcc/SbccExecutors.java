@@ -0,0 +1,108 @@
+package se.bjurr.sbcc;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.atlassian.sal.api.executor.ThreadLocalDelegateExecutorFactory;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Thread pools shared by all pushes. Tasks run with the authentication context of the submitting
+ * thread, so that JIRA is queried as the pushing user.
+ */
+public class SbccExecutors implements LifecycleAware {
+  /** Upper bound for all pushes, each push is also limited by its own settings. */
+  private static final int MAX_JQL_THREADS = 32;
+
+  private final ThreadPoolExecutor jqlPool;
+  private final ExecutorService jqlExecutor;
+  /** One thread per running git walk, the pushing thread consumes the output. */
+  private final ExecutorService gitPool;
+
+  private final ExecutorService gitExecutor;
+  /** Checks commits of pushes with several refs, one thread per core. */
+  private final ThreadPoolExecutor validationPool;
+
+  private final ExecutorService validationExecutor;
+  /** Refreshes the user index, tasks run with escalated permissions rather than as a user. */
+  private final ScheduledThreadPoolExecutor userIndexPool;
+
+  public SbccExecutors(
+      final ThreadLocalDelegateExecutorFactory threadLocalDelegateExecutorFactory) {
+    this.jqlPool =
+        new ThreadPoolExecutor(
+            MAX_JQL_THREADS,
+            MAX_JQL_THREADS,
+            60,
+            SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder() //
+                .setNameFormat("sbcc-jql-%d") //
+                .setDaemon(true) //
+                .build());
+    this.jqlPool.allowCoreThreadTimeOut(true);
+    this.jqlExecutor = threadLocalDelegateExecutorFactory.createExecutorService(this.jqlPool);
+    this.gitPool =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder() //
+                .setNameFormat("sbcc-git-%d") //
+                .setDaemon(true) //
+                .build());
+    this.gitExecutor = threadLocalDelegateExecutorFactory.createExecutorService(this.gitPool);
+    final int validationThreads = Runtime.getRuntime().availableProcessors();
+    this.validationPool =
+        new ThreadPoolExecutor(
+            validationThreads,
+            validationThreads,
+            60,
+            SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder() //
+                .setNameFormat("sbcc-validation-%d") //
+                .setDaemon(true) //
+                .build());
+    this.validationPool.allowCoreThreadTimeOut(true);
+    this.validationExecutor =
+        threadLocalDelegateExecutorFactory.createExecutorService(this.validationPool);
+    this.userIndexPool =
+        new ScheduledThreadPoolExecutor(
+            1,
+            new ThreadFactoryBuilder() //
+                .setNameFormat("sbcc-user-index-%d") //
+                .setDaemon(true) //
+                .build());
+  }
+
+  @Override
+  public void onStart() {}
+
+  @Override
+  public void onStop() {
+    this.jqlPool.shutdownNow();
+    this.gitPool.shutdownNow();
+    this.validationPool.shutdownNow();
+    this.userIndexPool.shutdownNow();
+  }
+
+  public ExecutorService getJqlExecutor() {
+    return this.jqlExecutor;
+  }
+
+  public ExecutorService getGitExecutor() {
+    return this.gitExecutor;
+  }
+
+  public ExecutorService getValidationExecutor() {
+    return this.validationExecutor;
+  }
+
+  public ScheduledExecutorService getUserIndexExecutor() {
+    return this.userIndexPool;
+  }
+}
@@ -0,0 +1,64 @@
+package se.bjurr.sbcc;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.INFO;
+import static se.bjurr.sbcc.JiraCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+import static se.bjurr.sbcc.JiraCircuitBreaker.DEFAULT_OPEN_SECONDS;
+import static se.bjurr.sbcc.JiraCircuitBreaker.DEFAULT_SLOW_CALL_SECONDS;
+
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import java.util.logging.Logger;
+
+/**
+ * Configures the circuit breaker of the shared {@link JiraClient} from bitbucket.properties. The
+ * thresholds are the same for all repositories, like the client.
+ */
+public class SbccJiraSettings implements LifecycleAware {
+  private static Logger logger = Logger.getLogger(SbccJiraSettings.class.getName());
+
+  /** Failed, or slow, calls in a row before JIRA is no longer called. */
+  public static final String PROPERTY_FAILURE_THRESHOLD =
+      "plugin.sbcc.jira.circuit.breaker.failures";
+  /** Calls slower than this are counted as failed. */
+  public static final String PROPERTY_SLOW_CALL_SECONDS =
+      "plugin.sbcc.jira.circuit.breaker.slow.call.seconds";
+  /** Time to wait before JIRA is called again. */
+  public static final String PROPERTY_OPEN_SECONDS =
+      "plugin.sbcc.jira.circuit.breaker.open.seconds";
+
+  private final ApplicationPropertiesService applicationPropertiesService;
+
+  public SbccJiraSettings(ApplicationPropertiesService applicationPropertiesService) {
+    this.applicationPropertiesService = applicationPropertiesService;
+  }
+
+  @Override
+  public void onStart() {
+    final int failureThreshold =
+        this.applicationPropertiesService.getPluginProperty(
+            PROPERTY_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD);
+    final int slowCallSeconds =
+        this.applicationPropertiesService.getPluginProperty(
+            PROPERTY_SLOW_CALL_SECONDS, DEFAULT_SLOW_CALL_SECONDS);
+    final int openSeconds =
+        this.applicationPropertiesService.getPluginProperty(
+            PROPERTY_OPEN_SECONDS, DEFAULT_OPEN_SECONDS);
+    logger.log(
+        INFO,
+        "JIRA circuit breaker opens for "
+            + openSeconds
+            + "s after "
+            + failureThreshold
+            + " failed calls in a row, calls slower than "
+            + slowCallSeconds
+            + "s count as failed");
+    JqlValidator.getJiraClient()
+        .setCircuitBreaker(
+            new JiraCircuitBreaker(
+                failureThreshold, SECONDS.toNanos(slowCallSeconds), SECONDS.toNanos(openSeconds)));
+  }
+
+  @Override
+  public void onStop() {}
+}
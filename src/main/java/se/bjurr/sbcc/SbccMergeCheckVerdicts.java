@@ -0,0 +1,80 @@
+package se.bjurr.sbcc;
+
+import static com.google.common.cache.CacheBuilder.newBuilder;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.atlassian.bitbucket.event.pull.PullRequestRescopedEvent;
+import com.atlassian.bitbucket.hook.repository.RepositoryHookResult;
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.cache.Cache;
+import java.util.Iterator;
+import se.bjurr.sbcc.settings.SbccSettings;
+
+/**
+ * Merge check results per pull request, source and target commit, settings and user. The merge
+ * check is run every time a pull request is viewed, but the result only changes when the pull
+ * request is rescoped.
+ */
+public class SbccMergeCheckVerdicts implements LifecycleAware {
+  private final Cache<String, RepositoryHookResult> verdicts =
+      newBuilder() //
+          .maximumSize(10000) //
+          .expireAfterWrite(10, MINUTES) //
+          .build();
+
+  private final EventPublisher eventPublisher;
+
+  public SbccMergeCheckVerdicts(final EventPublisher eventPublisher) {
+    this.eventPublisher = eventPublisher;
+  }
+
+  @Override
+  public void onStart() {
+    this.eventPublisher.register(this);
+  }
+
+  @Override
+  public void onStop() {
+    this.eventPublisher.unregister(this);
+    this.verdicts.invalidateAll();
+  }
+
+  public static String getKey(
+      final PullRequest pullRequest, final SbccSettings settings, final ApplicationUser user) {
+    return getPullRequestPrefix(pullRequest)
+        + pullRequest.getFromRef().getLatestCommit()
+        + "/"
+        + pullRequest.getToRef().getLatestCommit()
+        + "/"
+        + settings.getFingerprint()
+        + "/"
+        + (user == null ? "" : Integer.toString(user.getId()));
+  }
+
+  public RepositoryHookResult getVerdict(final String key) {
+    return this.verdicts.getIfPresent(key);
+  }
+
+  public void setVerdict(final String key, final RepositoryHookResult verdict) {
+    this.verdicts.put(key, verdict);
+  }
+
+  @EventListener
+  public void onPullRequestRescoped(final PullRequestRescopedEvent event) {
+    final String prefix = getPullRequestPrefix(event.getPullRequest());
+    final Iterator<String> keys = this.verdicts.asMap().keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().startsWith(prefix)) {
+        keys.remove();
+      }
+    }
+  }
+
+  private static String getPullRequestPrefix(final PullRequest pullRequest) {
+    return pullRequest.getToRef().getRepository().getId() + "/" + pullRequest.getId() + "/";
+  }
+}
@@ -26,7 +26,11 @@ public class SbccPreReceiveRepositoryHook implements PreRepositoryHook<Repositor
       ApplicationLinkService applicationLinkService,
       SbccUserAdminService sbccUserAdminService,
       SecurityService securityService,
-      RepositoryHookService repositoryHookService) {
+      RepositoryHookService repositoryHookService,
+      SbccSettingsCache sbccSettingsCache,
+      SbccExecutors sbccExecutors,
+      SbccVerifiedCommits sbccVerifiedCommits,
+      SbccMergeCheckVerdicts sbccMergeCheckVerdicts) {
     this.repositoryHook =
         new SbccRepositoryHook(
             changesetsService,
@@ -34,7 +38,11 @@ public class SbccPreReceiveRepositoryHook implements PreRepositoryHook<Repositor
             applicationLinkService,
             sbccUserAdminService,
             securityService,
-            repositoryHookService);
+            repositoryHookService,
+            sbccSettingsCache,
+            sbccExecutors,
+            sbccVerifiedCommits,
+            sbccMergeCheckVerdicts);
   }
 
   @Override
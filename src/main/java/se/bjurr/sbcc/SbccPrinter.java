@@ -285,6 +285,31 @@ public class SbccPrinter {
       }
     }
 
+    if (verificationResult.isTooManyCommits()) {
+      sbccRenderer.append(
+          sb,
+          "More than "
+              + settings.getMaxCommits()
+              + " new commits, push fewer commits at a time."
+              + NL);
+    }
+    if (verificationResult.isSampled()) {
+      sbccRenderer.append(
+          sb,
+          "More than "
+              + settings.getMaxCommits()
+              + " new commits, only the newest and a sample of the others were checked."
+              + NL);
+    }
+    if (verificationResult.isFailedFast()) {
+      sbccRenderer.append(
+          sb,
+          "Stopped after "
+              + settings.getFailFastErrors()
+              + " rejected, there may be more commits to fix."
+              + NL);
+    }
+
     if (settings.getAcceptMessage().isPresent() || !verificationResult.isAccepted()) {
       sbccRenderer.append(sb, NL);
     }
@@ -2,18 +2,22 @@ package se.bjurr.sbcc;
 
 import static com.google.common.base.Optional.absent;
 import static com.google.common.base.Optional.fromNullable;
-import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.collect.Lists.newArrayList;
-import static java.util.regex.Pattern.compile;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketEmail;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketName;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketUser;
 import static se.bjurr.sbcc.SbccCommon.getBitbucketUserSlug;
+import static se.bjurr.sbcc.SbccRenderer.SBCCVariable.REGEXP;
+import static se.bjurr.sbcc.SbccTemplate.sbccTemplate;
+import static se.bjurr.sbcc.settings.SbccPatterns.getPattern;
 
 import com.atlassian.bitbucket.auth.AuthenticationContext;
 import com.google.common.base.Optional;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
+import se.bjurr.sbcc.SbccTemplate.VariableResolver;
 import se.bjurr.sbcc.data.SbccChangeSet;
 
 public class SbccRenderer {
@@ -100,7 +104,7 @@ public class SbccRenderer {
           @Override
           public List<String> resolveAll(String regexp, SbccChangeSet changeSet) {
             List<String> allMatches = newArrayList();
-            Matcher matcher = compile(regexp).matcher(changeSet.getMessage());
+            Matcher matcher = getPattern(regexp).matcher(changeSet.getMessage());
             while (matcher.find()) {
               allMatches.add(matcher.group());
             }
@@ -137,24 +141,27 @@ public class SbccRenderer {
 
   private final AuthenticationContext authenticationContext;
   private Optional<SbccChangeSet> sbccChangeSet = absent();
+  /** Variables resolved for the current changeset. */
+  private final Map<SBCCVariable, String> resolved = new EnumMap<>(SBCCVariable.class);
+
+  private final VariableResolver variableResolver =
+      new VariableResolver() {
+        @Override
+        public String resolve(SBCCVariable variable) {
+          return getResolved(variable);
+        }
+      };
 
   public SbccRenderer(AuthenticationContext authenticationContext) {
     this.authenticationContext = authenticationContext;
   }
 
   public void append(StringBuilder sb, String renderAndAppend) {
-    sb.append(render(renderAndAppend));
+    sbccTemplate(renderAndAppend).renderTo(sb, this.variableResolver);
   }
 
   public String render(String string) {
-    for (SBCCVariable variable : SBCCVariable.values()) {
-      String resolved = variable.resolve(this.authenticationContext, this.sbccChangeSet);
-      if (isNullOrEmpty(resolved)) {
-        continue;
-      }
-      string = string.replaceAll("\\$\\{" + variable.name() + "\\}", resolved);
-    }
-    return string;
+    return sbccTemplate(string).render(this.variableResolver);
   }
 
   public List<String> renderAll(
@@ -163,16 +170,32 @@ public class SbccRenderer {
       SbccChangeSet sbccChangeSet,
       String toRender) {
     List<String> renderedList = newArrayList();
-    for (String resolved : variable.resolveAll(regexp, sbccChangeSet)) {
+    SbccTemplate template = sbccTemplate(toRender);
+    for (final String resolvedRegexp : variable.resolveAll(regexp, sbccChangeSet)) {
       renderedList.add(
-          render(
-              toRender.replaceAll(
-                  "\\$\\{" + SbccRenderer.SBCCVariable.REGEXP.name() + "\\}", resolved)));
+          template.render(
+              new VariableResolver() {
+                @Override
+                public String resolve(SBCCVariable toResolve) {
+                  if (toResolve == REGEXP) {
+                    return resolvedRegexp;
+                  }
+                  return getResolved(toResolve);
+                }
+              }));
     }
     return renderedList;
   }
 
   public void setSbccChangeSet(SbccChangeSet sbccChangeSet) {
     this.sbccChangeSet = fromNullable(sbccChangeSet);
+    this.resolved.clear();
+  }
+
+  private String getResolved(SBCCVariable variable) {
+    if (!this.resolved.containsKey(variable)) {
+      this.resolved.put(variable, variable.resolve(this.authenticationContext, this.sbccChangeSet));
+    }
+    return this.resolved.get(variable);
   }
 }
@@ -6,8 +6,6 @@ import static com.atlassian.bitbucket.permission.Permission.REPO_ADMIN;
 import static java.util.Optional.empty;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.SEVERE;
-import static se.bjurr.sbcc.commits.ChangeSetsService.isTag;
-import static se.bjurr.sbcc.settings.SbccSettings.sscSettings;
 
 import com.atlassian.applinks.api.ApplicationLinkService;
 import com.atlassian.bitbucket.auth.AuthenticationContext;
@@ -31,10 +29,11 @@ import java.util.logging.Logger;
 import se.bjurr.sbcc.commits.ChangeSetsService;
 import se.bjurr.sbcc.data.SbccVerificationResult;
 import se.bjurr.sbcc.settings.SbccSettings;
+import se.bjurr.sbcc.settings.ValidationException;
 
 public class SbccRepositoryHook {
   public static final String PR_REJECT_DEFAULT_MSG = "At least one change is not ok";
-  private static final String HOOK_SETTINGS_KEY = "se.bjurr.sscc.sscc:pre-receive-repository-hook";
+  public static final String HOOK_SETTINGS_KEY = "se.bjurr.sscc.sscc:pre-receive-repository-hook";
   private static Logger logger = Logger.getLogger(SbccRepositoryHook.class.getName());
 
   @VisibleForTesting
@@ -61,13 +60,25 @@ public class SbccRepositoryHook {
 
   private final RepositoryHookService repositoryHookService;
 
+  private final SbccSettingsCache sbccSettingsCache;
+
+  private final SbccExecutors sbccExecutors;
+
+  private final SbccVerifiedCommits sbccVerifiedCommits;
+
+  private final SbccMergeCheckVerdicts sbccMergeCheckVerdicts;
+
   public SbccRepositoryHook(
       final ChangeSetsService changesetsService,
       final AuthenticationContext bitbucketAuthenticationContext,
       final ApplicationLinkService applicationLinkService,
       final SbccUserAdminService sbccUserAdminService,
       final SecurityService securityService,
-      final RepositoryHookService repositoryHookService) {
+      final RepositoryHookService repositoryHookService,
+      final SbccSettingsCache sbccSettingsCache,
+      final SbccExecutors sbccExecutors,
+      final SbccVerifiedCommits sbccVerifiedCommits,
+      final SbccMergeCheckVerdicts sbccMergeCheckVerdicts) {
     this.hookName = "Simple Bitbucket Commit Checker";
     this.changesetsService = changesetsService;
     this.bitbucketAuthenticationContext = bitbucketAuthenticationContext;
@@ -75,12 +86,29 @@ public class SbccRepositoryHook {
     this.sbccUserAdminService = sbccUserAdminService;
     this.securityService = securityService;
     this.repositoryHookService = repositoryHookService;
+    this.sbccSettingsCache = sbccSettingsCache;
+    this.sbccExecutors = sbccExecutors;
+    this.sbccVerifiedCommits = sbccVerifiedCommits;
+    this.sbccMergeCheckVerdicts = sbccMergeCheckVerdicts;
   }
 
   public RepositoryHookResult performChecks(
       final List<RefChange> refChanges,
       final ScmHookDetails scmHookDetails,
       final Repository repository) {
+    return performChecks(refChanges, scmHookDetails, repository, Optional.<String>empty());
+  }
+
+  /**
+   * @param verdictKey if present, the result is remembered in {@link SbccMergeCheckVerdicts} with
+   *     this key. Unless it could not be fully determined, because of an error or JIRA not
+   *     answering.
+   */
+  public RepositoryHookResult performChecks(
+      final List<RefChange> refChanges,
+      final ScmHookDetails scmHookDetails,
+      final Repository repository,
+      final Optional<String> verdictKey) {
 
     PrintWriter responseWriter = null;
     if (scmHookDetails != null) {
@@ -94,12 +122,11 @@ public class SbccRepositoryHook {
       final StringBuilder hookResponse = new StringBuilder();
       final SbccRenderer sbccRenderer = new SbccRenderer(this.bitbucketAuthenticationContext);
 
-      final Optional<Settings> rawSettingsOpt = findSettings(repository);
-      if (!rawSettingsOpt.isPresent()) {
+      final Optional<SbccSettings> settingsOpt = findSbccSettings(repository);
+      if (!settingsOpt.isPresent()) {
         return acceptedResponse(responseWriter, hookResponse);
       }
-      final SbccSettings settings =
-          sscSettings(new RenderingSettings(rawSettingsOpt.get(), sbccRenderer));
+      final SbccSettings settings = settingsOpt.get();
 
       if (new UserValidator(settings, this.bitbucketAuthenticationContext.getCurrentUser())
           .shouldIgnoreChecksForUser()) {
@@ -114,23 +141,12 @@ public class SbccRepositoryHook {
               this.bitbucketAuthenticationContext,
               sbccRenderer,
               this.applicationLinkService,
-              this.sbccUserAdminService);
+              this.sbccUserAdminService,
+              this.sbccExecutors,
+              this.sbccVerifiedCommits);
 
       final SbccVerificationResult refChangeVerificationResults = new SbccVerificationResult();
-      for (final RefChange refChange : refChanges) {
-        final boolean isTag = isTag(refChange.getRef().getId());
-        final Boolean shouldExcludeTagCommits = settings.shouldExcludeTagCommits();
-        final boolean isNote = ChangeSetsService.isNote(refChange.getRef().getId());
-        if (isNote || isTag && shouldExcludeTagCommits) {
-          continue;
-        }
-        refChangeValidator.validateRefChange(
-            refChangeVerificationResults,
-            refChange.getType(),
-            refChange.getRef().getId(),
-            refChange.getFromHash(),
-            refChange.getToHash());
-      }
+      refChangeValidator.validateRefChanges(refChangeVerificationResults, refChanges);
 
       final String printOut =
           new SbccPrinter(settings, sbccRenderer)
@@ -141,18 +157,20 @@ public class SbccRepositoryHook {
         hookResponse.append(settings.getDryRunMessage().get());
       }
 
-      if (!settings.isDryRun()) {
-        if (refChangeVerificationResults.isAccepted()) {
-          return acceptedResponse(responseWriter, hookResponse);
-        } else {
-          final String summary =
-              settings
-                  .getShouldCheckPullRequestsMessage() //
-                  .or(PR_REJECT_DEFAULT_MSG);
-          return rejected(summary, hookResponse.toString());
-        }
+      final RepositoryHookResult result;
+      if (!settings.isDryRun() && !refChangeVerificationResults.isAccepted()) {
+        final String summary =
+            settings
+                .getShouldCheckPullRequestsMessage() //
+                .or(PR_REJECT_DEFAULT_MSG);
+        result = rejected(summary, hookResponse.toString());
+      } else {
+        result = acceptedResponse(responseWriter, hookResponse);
       }
-      return acceptedResponse(responseWriter, hookResponse);
+      if (verdictKey.isPresent() && refChangeValidator.isComplete()) {
+        this.sbccMergeCheckVerdicts.setVerdict(verdictKey.get(), result);
+      }
+      return result;
     } catch (final Exception e) {
       final String message =
           "Error while validating reference changes. Will allow all of them. \""
@@ -201,10 +219,6 @@ public class SbccRepositoryHook {
       if (settings == null) {
         return empty();
       }
-      final SbccRenderer sbccRenderer = new SbccRenderer(this.bitbucketAuthenticationContext);
-      final SbccSettings abccSettings =
-          SbccSettings.sscSettings(new RenderingSettings(settings.getSettings(), sbccRenderer));
-      logger.log(INFO, "Using settings:\n" + abccSettings);
       return Optional.of(settings.getSettings());
     } catch (final Exception e) {
       logger.log(SEVERE, "Tried to get settings for \"" + HOOK_SETTINGS_KEY + "\"", e);
@@ -212,6 +226,25 @@ public class SbccRepositoryHook {
     }
   }
 
+  /**
+   * The parsed settings, rendered for the current user. Empty if the hook is not enabled or if the
+   * settings are invalid.
+   */
+  public Optional<SbccSettings> findSbccSettings(final Repository repository) {
+    final Optional<Settings> settings = findSettings(repository);
+    if (!settings.isPresent()) {
+      return empty();
+    }
+    try {
+      return Optional.of(
+          this.sbccSettingsCache.getSettings(
+              repository, settings.get(), this.bitbucketAuthenticationContext));
+    } catch (final ValidationException e) {
+      logger.log(SEVERE, "Tried to parse settings for \"" + HOOK_SETTINGS_KEY + "\"", e);
+      return empty();
+    }
+  }
+
   @VisibleForTesting
   public String getHookName() {
     return this.hookName;
@@ -2,8 +2,6 @@ package se.bjurr.sbcc;
 
 import static com.atlassian.bitbucket.hook.repository.RepositoryHookResult.accepted;
 import static com.atlassian.bitbucket.repository.RefChangeType.ADD;
-import static java.util.logging.Level.SEVERE;
-import static se.bjurr.sbcc.settings.SbccSettings.sscSettings;
 
 import com.atlassian.applinks.api.ApplicationLinkService;
 import com.atlassian.bitbucket.auth.AuthenticationContext;
@@ -18,19 +16,20 @@ import com.atlassian.bitbucket.repository.MinimalRef;
 import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.RefChangeType;
 import com.atlassian.bitbucket.repository.Repository;
-import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.SecurityService;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.logging.Logger;
 import se.bjurr.sbcc.commits.ChangeSetsService;
-import se.bjurr.sbcc.settings.ValidationException;
+import se.bjurr.sbcc.settings.SbccSettings;
 
 public class SbccRepositoryMergeCheck implements RepositoryMergeCheck {
   private static Logger logger = Logger.getLogger(SbccRepositoryMergeCheck.class.getName());
 
   private final SbccRepositoryHook repositoryHook;
+  private final AuthenticationContext bitbucketAuthenticationContext;
+  private final SbccMergeCheckVerdicts sbccMergeCheckVerdicts;
 
   public SbccRepositoryMergeCheck(
       ChangeSetsService changesetsService,
@@ -39,7 +38,11 @@ public class SbccRepositoryMergeCheck implements RepositoryMergeCheck {
       SbccUserAdminService sbccUserAdminService,
       SecurityService securityService,
       RepositoryHookService repositoryHookService,
-      ChangeSetsService shangeSetsService) {
+      ChangeSetsService shangeSetsService,
+      SbccSettingsCache sbccSettingsCache,
+      SbccExecutors sbccExecutors,
+      SbccVerifiedCommits sbccVerifiedCommits,
+      SbccMergeCheckVerdicts sbccMergeCheckVerdicts) {
     this.repositoryHook =
         new SbccRepositoryHook(
             changesetsService,
@@ -47,7 +50,13 @@ public class SbccRepositoryMergeCheck implements RepositoryMergeCheck {
             applicationLinkService,
             sbccUserAdminService,
             securityService,
-            repositoryHookService);
+            repositoryHookService,
+            sbccSettingsCache,
+            sbccExecutors,
+            sbccVerifiedCommits,
+            sbccMergeCheckVerdicts);
+    this.bitbucketAuthenticationContext = bitbucketAuthenticationContext;
+    this.sbccMergeCheckVerdicts = sbccMergeCheckVerdicts;
   }
 
   @Override
@@ -57,23 +66,26 @@ public class SbccRepositoryMergeCheck implements RepositoryMergeCheck {
     final ScmHookDetails scmHookDetails = request.getScmHookDetails().orElse(null);
     final Repository repositoryWithCommits = request.getFromRef().getRepository();
     final Repository repositoryWithSettings = request.getToRef().getRepository();
-    final Optional<Settings> settings = repositoryHook.findSettings(repositoryWithSettings);
+    final Optional<SbccSettings> settings = repositoryHook.findSbccSettings(repositoryWithSettings);
 
     if (!settings.isPresent()) {
       return accepted();
     }
 
-    try {
-      final boolean shouldCheckPr =
-          sscSettings(settings.get()) //
-              .shouldCheckPullRequests();
-      if (!shouldCheckPr) {
-        return accepted();
-      }
-    } catch (final ValidationException e) {
-      logger.log(SEVERE, "Could not read settings", e);
+    final boolean shouldCheckPr =
+        settings
+            .get() //
+            .shouldCheckPullRequests();
+    if (!shouldCheckPr) {
       return accepted();
     }
+    final String verdictKey =
+        SbccMergeCheckVerdicts.getKey(
+            pullRequest, settings.get(), bitbucketAuthenticationContext.getCurrentUser());
+    final RepositoryHookResult verdict = sbccMergeCheckVerdicts.getVerdict(verdictKey);
+    if (verdict != null) {
+      return verdict;
+    }
     final List<RefChange> refChanges = new ArrayList<>();
     final RefChange refChange =
         new RefChange() {
@@ -98,6 +110,7 @@ public class SbccRepositoryMergeCheck implements RepositoryMergeCheck {
           }
         };
     refChanges.add(refChange);
-    return repositoryHook.performChecks(refChanges, scmHookDetails, repositoryWithCommits);
+    return repositoryHook.performChecks(
+        refChanges, scmHookDetails, repositoryWithCommits, Optional.of(verdictKey));
   }
 }
@@ -0,0 +1,123 @@
+package se.bjurr.sbcc;
+
+import static com.google.common.cache.CacheBuilder.newBuilder;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static se.bjurr.sbcc.settings.SbccSettings.sscSettings;
+
+import com.atlassian.bitbucket.auth.AuthenticationContext;
+import com.atlassian.bitbucket.event.hook.RepositoryHookEvent;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scope.RepositoryScope;
+import com.atlassian.bitbucket.scope.Scope;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.cache.Cache;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+import se.bjurr.sbcc.settings.SbccSettings;
+import se.bjurr.sbcc.settings.ValidationException;
+
+/**
+ * Parsed settings per repository. Variables like ${BITBUCKET_USER} are rendered when settings are
+ * parsed, so the settings are also kept per user. Entries are evicted when the hook settings are
+ * changed. That event is only published on the node where the settings were saved, so entries are
+ * also compared with the raw settings before they are used, on every node.
+ */
+public class SbccSettingsCache implements LifecycleAware {
+  private static Logger logger = Logger.getLogger(SbccSettingsCache.class.getName());
+
+  private final Cache<String, ParsedSettings> settingsCache =
+      newBuilder() //
+          .maximumSize(10000) //
+          .expireAfterWrite(10, MINUTES) //
+          .build();
+
+  private final EventPublisher eventPublisher;
+
+  public SbccSettingsCache(final EventPublisher eventPublisher) {
+    this.eventPublisher = eventPublisher;
+  }
+
+  @Override
+  public void onStart() {
+    this.eventPublisher.register(this);
+  }
+
+  @Override
+  public void onStop() {
+    this.eventPublisher.unregister(this);
+    this.settingsCache.invalidateAll();
+  }
+
+  public SbccSettings getSettings(
+      final Repository repository,
+      final Settings settings,
+      final AuthenticationContext authenticationContext)
+      throws ValidationException {
+    final String key = repositoryPrefix(repository.getId()) + getUserKey(authenticationContext);
+    final Map<String, Object> rawSettings = settings.asMap();
+    final ParsedSettings cached = this.settingsCache.getIfPresent(key);
+    if (cached != null && cached.rawSettings.equals(rawSettings)) {
+      return cached.sbccSettings;
+    }
+    final SbccRenderer sbccRenderer = new SbccRenderer(authenticationContext);
+    final SbccSettings sbccSettings = sscSettings(new RenderingSettings(settings, sbccRenderer));
+    logger.log(INFO, "Using settings:\n" + sbccSettings);
+    this.settingsCache.put(key, new ParsedSettings(rawSettings, sbccSettings));
+    return sbccSettings;
+  }
+
+  @EventListener
+  public void onRepositoryHookEvent(final RepositoryHookEvent event) {
+    if (!SbccRepositoryHook.HOOK_SETTINGS_KEY.equals(event.getRepositoryHookKey())) {
+      return;
+    }
+    final Scope scope = event.getScope();
+    if (scope instanceof RepositoryScope) {
+      invalidate(((RepositoryScope) scope).getRepository().getId());
+    } else {
+      logger.log(FINE, "Settings changed in " + scope + ", invalidating all settings");
+      this.settingsCache.invalidateAll();
+    }
+  }
+
+  private void invalidate(final int repositoryId) {
+    final String prefix = repositoryPrefix(repositoryId);
+    final Iterator<String> keys = this.settingsCache.asMap().keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().startsWith(prefix)) {
+        keys.remove();
+      }
+    }
+  }
+
+  private static String repositoryPrefix(final int repositoryId) {
+    return repositoryId + "/";
+  }
+
+  private static String getUserKey(final AuthenticationContext authenticationContext) {
+    final ApplicationUser user =
+        authenticationContext == null ? null : authenticationContext.getCurrentUser();
+    if (user == null) {
+      return "";
+    }
+    return Integer.toString(user.getId());
+  }
+
+  private static class ParsedSettings {
+    /** Comparing these is much cheaper than parsing them, they are a few hundred at most. */
+    private final Map<String, Object> rawSettings;
+    private final SbccSettings sbccSettings;
+
+    private ParsedSettings(final Map<String, Object> rawSettings, final SbccSettings sbccSettings) {
+      this.rawSettings = rawSettings;
+      this.sbccSettings = sbccSettings;
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package se.bjurr.sbcc;
+
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.cache.CacheBuilder.newBuilder;
+import static com.google.common.collect.Lists.newArrayList;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.Collections;
+import java.util.List;
+import se.bjurr.sbcc.SbccRenderer.SBCCVariable;
+
+/**
+ * A string with ${VARIABLE} placeholders, parsed once into literal and variable segments. Unknown
+ * placeholders are kept as literals.
+ */
+public class SbccTemplate {
+  private static final String START = "${";
+  private static final String END = "}";
+
+  private static final LoadingCache<String, SbccTemplate> templates =
+      newBuilder() //
+          .maximumSize(10000) //
+          .build(
+              new CacheLoader<String, SbccTemplate>() {
+                @Override
+                public SbccTemplate load(String template) {
+                  return parse(template);
+                }
+              });
+
+  public interface VariableResolver {
+    /** @return the value of the variable, null or empty to keep the placeholder. */
+    String resolve(SBCCVariable variable);
+  }
+
+  public static SbccTemplate sbccTemplate(String template) {
+    if (!template.contains(START)) {
+      // Not cached, most of these are commit messages and file names that are only printed once.
+      return new SbccTemplate(
+          template, Collections.singletonList(template), Collections.<SBCCVariable>emptyList());
+    }
+    try {
+      return templates.getUnchecked(template);
+    } catch (UncheckedExecutionException e) {
+      throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private static SbccTemplate parse(String template) {
+    List<String> literals = newArrayList();
+    List<SBCCVariable> variables = newArrayList();
+    StringBuilder literal = new StringBuilder();
+    int position = 0;
+    while (position < template.length()) {
+      int start = template.indexOf(START, position);
+      int end = start == -1 ? -1 : template.indexOf(END, start + START.length());
+      if (end == -1) {
+        literal.append(template, position, template.length());
+        break;
+      }
+      SBCCVariable variable = findVariable(template.substring(start + START.length(), end));
+      if (variable == null) {
+        literal.append(template, position, start + START.length());
+        position = start + START.length();
+        continue;
+      }
+      literal.append(template, position, start);
+      literals.add(literal.toString());
+      variables.add(variable);
+      literal = new StringBuilder();
+      position = end + END.length();
+    }
+    literals.add(literal.toString());
+    return new SbccTemplate(template, literals, variables);
+  }
+
+  private static SBCCVariable findVariable(String name) {
+    for (SBCCVariable variable : SBCCVariable.values()) {
+      if (variable.name().equals(name)) {
+        return variable;
+      }
+    }
+    return null;
+  }
+
+  private final String template;
+  /** There is always one more literal than there are variables. */
+  private final List<String> literals;
+
+  private final List<SBCCVariable> variables;
+
+  private SbccTemplate(String template, List<String> literals, List<SBCCVariable> variables) {
+    this.template = template;
+    this.literals = literals;
+    this.variables = variables;
+  }
+
+  public boolean hasVariables() {
+    return !variables.isEmpty();
+  }
+
+  public String render(VariableResolver resolver) {
+    if (!hasVariables()) {
+      return template;
+    }
+    StringBuilder sb = new StringBuilder(template.length());
+    renderTo(sb, resolver);
+    return sb.toString();
+  }
+
+  public void renderTo(StringBuilder sb, VariableResolver resolver) {
+    if (!hasVariables()) {
+      sb.append(template);
+      return;
+    }
+    for (int i = 0; i < variables.size(); i++) {
+      sb.append(literals.get(i));
+      SBCCVariable variable = variables.get(i);
+      String resolved = resolver.resolve(variable);
+      if (resolved == null || resolved.isEmpty()) {
+        sb.append(START).append(variable.name()).append(END);
+      } else {
+        sb.append(resolved);
+      }
+    }
+    sb.append(literals.get(variables.size()));
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
@@ -1,41 +1,81 @@
 package se.bjurr.sbcc;
 
-import static com.google.common.base.Throwables.propagate;
+import static com.atlassian.bitbucket.permission.Permission.ADMIN;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.cache.CacheBuilder.newBuilder;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
+import static java.util.Locale.ROOT;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
 
+import com.atlassian.bitbucket.event.user.UserCleanupEvent;
+import com.atlassian.bitbucket.event.user.UserRenamedEvent;
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
 import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.SecurityService;
 import com.atlassian.bitbucket.user.UserService;
 import com.atlassian.bitbucket.util.Page;
 import com.atlassian.bitbucket.util.PageRequest;
 import com.atlassian.bitbucket.util.PageRequestImpl;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Logger;
 
-public class SbccUserAdminService {
+/**
+ * Answers if authors exist in Bitbucket. Answers are cached on this node, in front of a {@link
+ * SbccUserCacheBackend} shared by all nodes, in front of the user directory. When enabled with
+ * {@link #PROPERTY_USER_INDEX} in bitbucket.properties, all users are kept in an index that is
+ * refreshed periodically and updated when users are deleted or renamed. Anything not found in the
+ * index, like users added since the last refresh, is looked up in the caches.
+ */
+public class SbccUserAdminService implements LifecycleAware {
+  private static Logger logger = Logger.getLogger(SbccUserAdminService.class.getName());
+
+  public static final String PROPERTY_USER_INDEX = "plugin.sbcc.user.index";
+  public static final String PROPERTY_USER_INDEX_REFRESH_MINUTES =
+      "plugin.sbcc.user.index.refresh.minutes";
+  private static final int DEFAULT_USER_INDEX_REFRESH_MINUTES = 60;
+  /**
+   * Answers are also shared by {@link SbccUserCacheBackend}, for longer. Other nodes may answer
+   * from their own caches this long after a user was deleted or renamed.
+   */
+  private static final int NEAR_CACHE_MINUTES = 1;
+
+  private static final String DISPLAY_NAME = "displayName/";
+  private static final String SLUG = "slug/";
+  private static final String EMAIL = "email/";
 
   private final LoadingCache<String, Boolean> displayNameCache =
       newBuilder() //
           .maximumSize(10000) //
-          .expireAfterWrite(10, MINUTES) //
+          .expireAfterWrite(NEAR_CACHE_MINUTES, MINUTES) //
           .build(
-              new CacheLoader<String, Boolean>() {
+              new SharedCacheLoader(DISPLAY_NAME) {
                 @Override
-                public Boolean load(String key) {
+                protected boolean doExist(String key) {
                   return doDisplayNameExist(key);
                 }
               });
   private final LoadingCache<String, Boolean> slugCache =
       newBuilder() //
           .maximumSize(10000) //
-          .expireAfterWrite(10, MINUTES) //
+          .expireAfterWrite(NEAR_CACHE_MINUTES, MINUTES) //
           .build(
-              new CacheLoader<String, Boolean>() {
+              new SharedCacheLoader(SLUG) {
                 @Override
-                public Boolean load(String key) {
+                protected boolean doExist(String key) {
                   return doSlugExist(key);
                 }
               });
@@ -43,34 +83,179 @@ public class SbccUserAdminService {
   private final LoadingCache<String, Boolean> emailCache =
       newBuilder() //
           .maximumSize(10000) //
-          .expireAfterWrite(10, MINUTES) //
+          .expireAfterWrite(NEAR_CACHE_MINUTES, MINUTES) //
           .build(
-              new CacheLoader<String, Boolean>() {
+              new SharedCacheLoader(EMAIL) {
                 @Override
-                public Boolean load(String key) {
+                protected boolean doExist(String key) {
                   return doEmailExist(key);
                 }
               });
 
   private final UserService userService;
+  private final SecurityService securityService;
+  private final EventPublisher eventPublisher;
+  private final ApplicationPropertiesService applicationPropertiesService;
+  private final SbccExecutors sbccExecutors;
+  private final SbccUserCacheBackend userCacheBackend;
+  /** Null until built, or if not enabled. */
+  private volatile SbccUserIndex userIndex;
+
+  private ScheduledFuture<?> userIndexRefresh;
 
-  public SbccUserAdminService(UserService userService) {
+  public SbccUserAdminService(
+      UserService userService,
+      SecurityService securityService,
+      EventPublisher eventPublisher,
+      ApplicationPropertiesService applicationPropertiesService,
+      SbccExecutors sbccExecutors,
+      SbccUserCacheBackend userCacheBackend) {
     this.userService = userService;
+    this.securityService = securityService;
+    this.eventPublisher = eventPublisher;
+    this.applicationPropertiesService = applicationPropertiesService;
+    this.sbccExecutors = sbccExecutors;
+    this.userCacheBackend = userCacheBackend;
+  }
+
+  @Override
+  public void onStart() {
+    this.eventPublisher.register(this);
+    if (!this.applicationPropertiesService.getPluginProperty(PROPERTY_USER_INDEX, false)) {
+      return;
+    }
+    final int refreshMinutes =
+        this.applicationPropertiesService.getPluginProperty(
+            PROPERTY_USER_INDEX_REFRESH_MINUTES, DEFAULT_USER_INDEX_REFRESH_MINUTES);
+    this.userIndexRefresh =
+        this.sbccExecutors
+            .getUserIndexExecutor()
+            .scheduleWithFixedDelay(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    refreshUserIndex();
+                  }
+                },
+                0,
+                refreshMinutes,
+                MINUTES);
+  }
+
+  @Override
+  public void onStop() {
+    this.eventPublisher.unregister(this);
+    if (this.userIndexRefresh != null) {
+      this.userIndexRefresh.cancel(true);
+    }
+    this.userIndex = null;
+  }
+
+  @VisibleForTesting
+  void refreshUserIndex() {
+    try {
+      final long start = System.currentTimeMillis();
+      final SbccUserIndex built =
+          this.securityService
+              .withPermission(ADMIN, "Indexing users")
+              .call(
+                  new UncheckedOperation<SbccUserIndex>() {
+                    @Override
+                    public SbccUserIndex perform() {
+                      return SbccUserIndex.build(SbccUserAdminService.this.userService);
+                    }
+                  });
+      this.userIndex = built;
+      logger.log(
+          INFO,
+          "Indexed " + built.size() + " users in " + (System.currentTimeMillis() - start) + "ms");
+    } catch (final RuntimeException e) {
+      // Keep the previous index, and keep refreshing
+      logger.log(SEVERE, "Could not index users", e);
+    }
+  }
+
+  @EventListener
+  public void onUserCleanup(final UserCleanupEvent event) {
+    final ApplicationUser user = event.getDeletedUser();
+    final SbccUserIndex index = this.userIndex;
+    if (index != null) {
+      index.remove(user.getId());
+    }
+    invalidateCaches();
+  }
+
+  @EventListener
+  public void onUserRenamed(final UserRenamedEvent event) {
+    final ApplicationUser user = event.getUser();
+    final SbccUserIndex index = this.userIndex;
+    if (index != null) {
+      index.add(user);
+    }
+    invalidateCaches();
   }
 
   public boolean displayNameExists(String name) {
+    final SbccUserIndex index = this.userIndex;
+    if (index != null && index.hasDisplayName(name)) {
+      return true;
+    }
     try {
-      return this.displayNameCache.get(name);
+      return this.displayNameCache.get(toKey(name));
     } catch (ExecutionException e) {
-      throw propagate(e);
+      throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
     }
   }
 
   public boolean emailExists(String email) {
+    final SbccUserIndex index = this.userIndex;
+    if (index != null && index.hasEmail(email)) {
+      return true;
+    }
     try {
-      return this.emailCache.get(email);
+      return this.emailCache.get(toKey(email));
     } catch (ExecutionException e) {
-      throw propagate(e);
+      throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Looks up the authors of many commits before they are checked, each distinct author once.
+   * Display names are looked up first, the e-mail address of a user found by its display name is
+   * then known without another query. Bitbucket has no batched lookup of users by e-mail or display
+   * name, so each author that is not cached is still one query to the user directory. Use {@link
+   * #PROPERTY_USER_INDEX} to avoid those queries.
+   */
+  public void resolve(
+      Collection<String> emails, Collection<String> displayNames, Collection<String> slugs) {
+    final SbccUserIndex index = this.userIndex;
+    final Set<String> displayNameKeys = new LinkedHashSet<>();
+    for (final String displayName : displayNames) {
+      if (index == null || !index.hasDisplayName(displayName)) {
+        displayNameKeys.add(toKey(displayName));
+      }
+    }
+    final Set<String> emailKeys = new LinkedHashSet<>();
+    for (final String email : emails) {
+      if (index == null || !index.hasEmail(email)) {
+        emailKeys.add(toKey(email));
+      }
+    }
+    final Set<String> slugKeys = new LinkedHashSet<>();
+    for (final String slug : slugs) {
+      if (index == null || !index.hasSlug(slug)) {
+        slugKeys.add(slug);
+      }
+    }
+    try {
+      this.displayNameCache.getAll(displayNameKeys);
+      this.emailCache.getAll(emailKeys);
+      this.slugCache.getAll(slugKeys);
+    } catch (ExecutionException e) {
+      throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
     }
   }
 
@@ -78,6 +263,9 @@ public class SbccUserAdminService {
     Page<ApplicationUser> found = getMatching(name);
     for (ApplicationUser f : found.getValues()) {
       if (f.getDisplayName().equalsIgnoreCase(name)) {
+        if (f.getEmailAddress() != null) {
+          putExists(this.emailCache, EMAIL, toKey(f.getEmailAddress()));
+        }
         return TRUE;
       }
     }
@@ -93,6 +281,9 @@ public class SbccUserAdminService {
     Page<ApplicationUser> found = getMatching(email);
     for (ApplicationUser f : found.getValues()) {
       if (f.getEmailAddress().equalsIgnoreCase(email)) {
+        if (f.getDisplayName() != null) {
+          putExists(this.displayNameCache, DISPLAY_NAME, toKey(f.getDisplayName()));
+        }
         return TRUE;
       }
     }
@@ -111,10 +302,61 @@ public class SbccUserAdminService {
   }
 
   public boolean slugExists(String name) {
+    final SbccUserIndex index = this.userIndex;
+    if (index != null && index.hasSlug(name)) {
+      return true;
+    }
     try {
       return this.slugCache.get(name);
     } catch (ExecutionException e) {
-      throw propagate(e);
+      throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
     }
   }
+
+  /**
+   * Cached answers about a deleted or renamed user are not kept until they expire. Shared answers
+   * are removed first, so that they are not loaded into the caches again.
+   */
+  private void invalidateCaches() {
+    this.userCacheBackend.removeAll();
+    this.emailCache.invalidateAll();
+    this.displayNameCache.invalidateAll();
+    this.slugCache.invalidateAll();
+  }
+
+  private void putExists(LoadingCache<String, Boolean> cache, String prefix, String key) {
+    this.userCacheBackend.put(prefix + key, TRUE);
+    cache.put(key, TRUE);
+  }
+
+  /**
+   * Loads answers shared by {@link SbccUserCacheBackend}, and shares answers loaded from the user
+   * directory.
+   */
+  private abstract class SharedCacheLoader extends CacheLoader<String, Boolean> {
+    private final String prefix;
+
+    private SharedCacheLoader(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Boolean load(String key) {
+      final Boolean shared = SbccUserAdminService.this.userCacheBackend.get(this.prefix + key);
+      if (shared != null) {
+        return shared;
+      }
+      final boolean exists = doExist(key);
+      SbccUserAdminService.this.userCacheBackend.put(this.prefix + key, exists);
+      return exists;
+    }
+
+    protected abstract boolean doExist(String key);
+  }
+
+  /** E-mail addresses and display names are compared ignoring case, and cached in lower case. */
+  private static String toKey(String emailOrDisplayName) {
+    return emailOrDisplayName.toLowerCase(ROOT);
+  }
 }
@@ -0,0 +1,15 @@
+package se.bjurr.sbcc;
+
+/**
+ * Answers, about users existing, that are shared beyond the caches of {@link
+ * SbccUserAdminService}. Like by all nodes of a cluster.
+ */
+public interface SbccUserCacheBackend {
+  /** @return the cached answer, or null if there is none. */
+  Boolean get(String key);
+
+  void put(String key, Boolean exists);
+
+  /** Removes all answers, wherever they are shared. */
+  void removeAll();
+}
@@ -0,0 +1,89 @@
+package se.bjurr.sbcc;
+
+import static com.google.common.collect.Multimaps.synchronizedSetMultimap;
+import static java.util.Locale.ROOT;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.UserService;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequest;
+import com.atlassian.bitbucket.util.PageRequestImpl;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * E-mail addresses, display names and slugs of all users, built by paging through the user
+ * directory once. E-mail addresses and display names are compared ignoring case, like the
+ * directory queries do.
+ */
+class SbccUserIndex {
+  private static final int PAGE_SIZE = 1000;
+
+  private final Map<Integer, ApplicationUser> users = new ConcurrentHashMap<>();
+  private final SetMultimap<String, Integer> emails =
+      synchronizedSetMultimap(HashMultimap.create());
+  private final SetMultimap<String, Integer> displayNames =
+      synchronizedSetMultimap(HashMultimap.create());
+  private final SetMultimap<String, Integer> slugs = synchronizedSetMultimap(HashMultimap.create());
+
+  static SbccUserIndex build(final UserService userService) {
+    final SbccUserIndex index = new SbccUserIndex();
+    PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+    while (pageRequest != null) {
+      final Page<ApplicationUser> page = userService.findUsersByName(null, pageRequest);
+      for (final ApplicationUser user : page.getValues()) {
+        index.add(user);
+      }
+      pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+    }
+    return index;
+  }
+
+  /** Adds the user, or replaces it if its name, e-mail or display name was changed. */
+  void add(final ApplicationUser user) {
+    remove(user.getId());
+    this.users.put(user.getId(), user);
+    put(this.emails, toKey(user.getEmailAddress()), user.getId());
+    put(this.displayNames, toKey(user.getDisplayName()), user.getId());
+    put(this.slugs, user.getSlug(), user.getId());
+  }
+
+  void remove(final int userId) {
+    final ApplicationUser user = this.users.remove(userId);
+    if (user == null) {
+      return;
+    }
+    this.emails.remove(toKey(user.getEmailAddress()), userId);
+    this.displayNames.remove(toKey(user.getDisplayName()), userId);
+    this.slugs.remove(user.getSlug(), userId);
+  }
+
+  boolean hasEmail(final String email) {
+    return this.emails.containsKey(toKey(email));
+  }
+
+  boolean hasDisplayName(final String displayName) {
+    return this.displayNames.containsKey(toKey(displayName));
+  }
+
+  boolean hasSlug(final String slug) {
+    return this.slugs.containsKey(slug);
+  }
+
+  int size() {
+    return this.users.size();
+  }
+
+  private static void put(
+      final SetMultimap<String, Integer> map, final String key, final Integer userId) {
+    if (key != null) {
+      map.put(key, userId);
+    }
+  }
+
+  private static String toKey(final String string) {
+    return string == null ? null : string.toLowerCase(ROOT);
+  }
+}
@@ -0,0 +1,45 @@
+package se.bjurr.sbcc;
+
+import static com.google.common.cache.CacheBuilder.newBuilder;
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.google.common.cache.Cache;
+import se.bjurr.sbcc.settings.SbccSettings;
+
+/**
+ * Commits that were checked, without anything to report, with the same settings by the same user.
+ * They are not checked again when pushed to another branch, rebased or merged with a pull request.
+ */
+public class SbccVerifiedCommits {
+  /**
+   * Not longer than the cached JIRA and user directory answers that the commits were verified
+   * with. An issue that stops matching the JQL, or an author that is removed, is then noticed as
+   * soon as it would be if the commits were checked again.
+   */
+  private static final int VERIFIED_MINUTES =
+      min(JiraClient.POSITIVE_RESULTS_MINUTES, SbccClusterUserCacheBackend.EXPIRE_MINUTES);
+
+  private final Cache<String, Boolean> verified =
+      newBuilder() //
+          .maximumSize(100000) //
+          .expireAfterWrite(VERIFIED_MINUTES, MINUTES) //
+          .build();
+
+  public boolean isVerified(
+      final SbccSettings settings, final ApplicationUser user, final String commitId) {
+    return this.verified.getIfPresent(getKey(settings, user, commitId)) != null;
+  }
+
+  public void setVerified(
+      final SbccSettings settings, final ApplicationUser user, final String commitId) {
+    this.verified.put(getKey(settings, user, commitId), Boolean.TRUE);
+  }
+
+  private static String getKey(
+      final SbccSettings settings, final ApplicationUser user, final String commitId) {
+    final String userKey = user == null ? "" : Integer.toString(user.getId());
+    return commitId + "/" + settings.getFingerprint() + "/" + userKey;
+  }
+}
@@ -1,7 +1,7 @@
 package se.bjurr.sbcc;
 
 import static com.atlassian.bitbucket.user.UserType.SERVICE;
-import static java.util.regex.Pattern.matches;
+import static se.bjurr.sbcc.settings.SbccPatterns.getPattern;
 
 import com.atlassian.bitbucket.user.ApplicationUser;
 import se.bjurr.sbcc.settings.SbccSettings;
@@ -23,7 +23,9 @@ public class UserValidator {
   private boolean shouldIgnoreByUserNamePattern() {
     return settings.getIgnoreUsersPattern().isPresent()
         && (currentUser == null
-            || matches(settings.getIgnoreUsersPattern().get(), currentUser.getName()));
+            || getPattern(settings.getIgnoreUsersPattern().get())
+                .matcher(currentUser.getName())
+                .matches());
   }
 
   private boolean shouldIgnoreServiceUser() {
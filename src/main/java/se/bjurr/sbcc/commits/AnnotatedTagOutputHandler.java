@@ -15,8 +15,10 @@ import se.bjurr.sbcc.data.SbccPerson;
 
 public class AnnotatedTagOutputHandler extends LineReaderOutputHandler
     implements CommandOutputHandler<SbccChangeSet> {
+  private static final Pattern TAGGER_PATTERN = Pattern.compile("^tagger (.*)\\s*<([^>]*)> .*$");
 
   private SbccChangeSet sbccChangeSet = null;
+  private String taggedObject = null;
 
   public AnnotatedTagOutputHandler(final String ref) {
     super(Charset.forName("UTF-8"));
@@ -28,6 +30,12 @@ public class AnnotatedTagOutputHandler extends LineReaderOutputHandler
     return sbccChangeSet;
   }
 
+  /** The object that the tag points at, null if the ref was not an annotated tag. */
+  @Nullable
+  public String getTaggedObject() {
+    return taggedObject;
+  }
+
   @Override
   protected void processReader(final LineReader lineReader) throws IOException {
     String line;
@@ -36,9 +44,12 @@ public class AnnotatedTagOutputHandler extends LineReaderOutputHandler
     boolean isTag = false;
     String message = null;
     String ref = null;
+    String object = null;
 
     while ((line = lineReader.readLine()) != null) {
-      if (line.startsWith("tag ")) {
+      if (line.startsWith("object ")) {
+        object = line.substring("object ".length()).trim();
+      } else if (line.startsWith("tag ")) {
         isTag = true;
         ref = line;
       } else if (line.startsWith("tagger ")) {
@@ -49,6 +60,7 @@ public class AnnotatedTagOutputHandler extends LineReaderOutputHandler
     }
 
     if (isTag) {
+      taggedObject = object;
       sbccChangeSet =
           changeSetBuilder() //
               .withCommitter(tagger) //
@@ -61,8 +73,7 @@ public class AnnotatedTagOutputHandler extends LineReaderOutputHandler
   }
 
   private SbccPerson parseTagger(final String line) {
-    final Pattern pattern = Pattern.compile("^tagger (.*)\\s*<([^>]*)> .*$");
-    final Matcher matcher = pattern.matcher(line);
+    final Matcher matcher = TAGGER_PATTERN.matcher(line);
     if (matcher.matches()) {
       final String name = matcher.group(1).trim();
       final String email = matcher.group(2).trim();
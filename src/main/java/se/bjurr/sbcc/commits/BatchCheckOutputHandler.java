@@ -0,0 +1,43 @@
+package se.bjurr.sbcc.commits;
+
+import static java.lang.Long.parseLong;
+
+import com.atlassian.bitbucket.io.LineReader;
+import com.atlassian.bitbucket.io.LineReaderOutputHandler;
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Reads cat-file --batch-check output. The output is the size, in bytes, per object id. Missing
+ * objects are left out.
+ */
+public class BatchCheckOutputHandler extends LineReaderOutputHandler
+    implements CommandOutputHandler<Map<String, Long>> {
+  private final Map<String, Long> sizes = new HashMap<>();
+
+  public BatchCheckOutputHandler() {
+    super(Charset.forName("UTF-8"));
+  }
+
+  @Nullable
+  @Override
+  public Map<String, Long> getOutput() {
+    return sizes;
+  }
+
+  @Override
+  protected void processReader(final LineReader lineReader) throws IOException {
+    String line;
+    while ((line = lineReader.readLine()) != null) {
+      // objectId type size, or objectId missing
+      final String[] fields = line.split(" ");
+      if (fields.length == 3) {
+        sizes.put(fields[0], parseLong(fields[2]));
+      }
+    }
+  }
+}
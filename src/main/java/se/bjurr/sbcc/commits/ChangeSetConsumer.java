@@ -0,0 +1,15 @@
+package se.bjurr.sbcc.commits;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import se.bjurr.sbcc.data.SbccChangeSet;
+
+/** Receives commits one at a time, as they are read from git. */
+public interface ChangeSetConsumer {
+  /**
+   * Called once for every ref that the commit is new on.
+   *
+   * @return false to stop the walk, no more commits are given to the consumer.
+   */
+  boolean accept(String refId, SbccChangeSet sbccChangeSet) throws IOException, ExecutionException;
+}
@@ -2,28 +2,53 @@ package se.bjurr.sbcc.commits;
 
 import static com.atlassian.bitbucket.repository.RefChangeType.DELETE;
 import static com.atlassian.bitbucket.scm.git.GitRefPattern.TAGS;
+import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.collect.Lists.newArrayList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static se.bjurr.sbcc.commits.RevListOutputHandler.FORMAT;
 
+import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.RefChangeType;
 import com.atlassian.bitbucket.repository.RefService;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.scm.ScmService;
 import com.atlassian.bitbucket.scm.git.GitScm;
+import com.atlassian.bitbucket.scm.git.command.GitCommand;
 import com.atlassian.bitbucket.scm.git.command.GitScmCommandBuilder;
 import com.google.common.base.Optional;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import se.bjurr.sbcc.data.SbccChangeSet;
 import se.bjurr.sbcc.settings.SbccSettings;
 
 public class ChangeSetsService {
   private static Logger logger = getLogger(ChangeSetsService.class.getName());
+  /** Parsed commits that git may be ahead of the validation. */
+  private static final int PARSED_QUEUE_SIZE = 100;
+
+  private static final Pattern ZERO_HASH = Pattern.compile("0+");
+
+  private static final ParsedChangeSet END_OF_WALK = new ParsedChangeSet(null, null);
 
   private final ScmService scmService;
 
@@ -31,45 +56,276 @@ public class ChangeSetsService {
     this.scmService = scmService;
   }
 
-  public List<SbccChangeSet> getNewChangeSets(
+  /**
+   * Finds the new commits of all the given ref changes with one single rev-list walk. Each commit
+   * is given to the consumer, on the calling thread, as git prints it. At most {@link
+   * #PARSED_QUEUE_SIZE} parsed commits are waiting for the consumer at any time, and git is stopped
+   * when the consumer stops.
+   *
+   * @param gitExecutor runs git, while the calling thread consumes its output.
+   */
+  public void streamNewChangeSets(
       final SbccSettings settings,
       final Repository repository,
-      final String refId,
-      final RefChangeType type,
-      final String toHash)
-      throws IOException {
-    return getNewChangesets(settings, repository, refId, type, toHash);
-  }
+      final List<RefChange> refChanges,
+      final ExecutorService gitExecutor,
+      final ChangeSetConsumer consumer)
+      throws IOException, ExecutionException {
+    if (!findGitScmCommandBuilder(repository).isPresent()) {
+      return;
+    }
 
-  private Optional<GitScmCommandBuilder> findGitScmCommandBuilder(final Repository repository) {
-    if (!GitScm.ID.equals(repository.getScmId())) {
-      logger.log(WARNING, "SCM " + repository.getScmId() + " not supported");
-      return Optional.absent();
+    final Map<String, Set<String>> refsByTip = new LinkedHashMap<>();
+    final Set<String> fromHashes = new TreeSet<>();
+    boolean hasNewRef = false;
+    for (final RefChange refChange : refChanges) {
+      final String refId = refChange.getRef().getId();
+      final RefChangeType type = refChange.getType();
+      if (type == DELETE) {
+        continue;
+      }
+      if (isNewRef(refChange)) {
+        hasNewRef = true;
+      } else {
+        fromHashes.add(refChange.getFromHash());
+      }
+      String tip = refChange.getToHash();
+      if (isTag(refId) && !settings.shouldExcludeTagCommits()) {
+        final AnnotatedTagOutputHandler tagOutputHandler =
+            new AnnotatedTagOutputHandler(refChange.getToHash());
+        for (final SbccChangeSet tag :
+            getTag(refChange.getToHash(), repository, tagOutputHandler)) {
+          if (!consumer.accept(refId, tag)) {
+            return;
+          }
+        }
+        if (tagOutputHandler.getTaggedObject() != null) {
+          tip = tagOutputHandler.getTaggedObject();
+        }
+      }
+      if (!refsByTip.containsKey(tip)) {
+        refsByTip.put(tip, new TreeSet<String>());
+      }
+      refsByTip.get(tip).add(refId);
+    }
+
+    if (!refsByTip.isEmpty()) {
+      streamCommits(
+          refsByTip,
+          getExclusions(settings, fromHashes, hasNewRef),
+          repository,
+          settings,
+          gitExecutor,
+          consumer);
     }
-    return Optional.of((GitScmCommandBuilder) scmService.createBuilder(repository));
   }
 
-  private List<SbccChangeSet> getNewChangesets(
+  /**
+   * Finds the files, added or changed by the commits, that are larger than {@link
+   * SbccSettings#getCommitSizeKb()}. Merge commits are not diffed, files they add or change are
+   * found in the commits that are merged, but not changes made when resolving conflicts.
+   *
+   * @return size in kb, rounded up, per path of the large files, per commit id.
+   */
+  public Map<String, Map<String, Long>> findLargeFiles(
       final SbccSettings settings,
       final Repository repository,
-      final String refId,
-      final RefChangeType type,
-      final String toHash) {
+      final Collection<String> commitIds) {
+    final Map<String, Map<String, Long>> largeFiles = new HashMap<>();
+    final Optional<GitScmCommandBuilder> gitScmCommandBuilder =
+        findGitScmCommandBuilder(repository);
+    if (!gitScmCommandBuilder.isPresent() || commitIds.isEmpty()) {
+      return largeFiles;
+    }
+    final Map<String, Map<String, Long>> fileSizes =
+        findFileSizes(repository, commitIds, new ArrayList<String>());
+    for (final String commitId : fileSizes.keySet()) {
+      final Map<String, Long> sizesByPath = fileSizes.get(commitId);
+      for (final String path : sizesByPath.keySet()) {
+        final long size = sizesByPath.get(path);
+        if (size <= toBytes(settings.getCommitSizeKb())) {
+          continue;
+        }
+        if (!largeFiles.containsKey(commitId)) {
+          largeFiles.put(commitId, new TreeMap<String, Long>());
+        }
+        largeFiles.get(commitId).put(path, (size + 1023) / 1024);
+      }
+    }
+    return largeFiles;
+  }
 
+  /**
+   * Finds the lines, added by the commits, that match {@link SbccSettings#getCommitDiffRegexp()}.
+   * The patches are streamed through diff-tree, without context lines, and matched as they are
+   * read. Files that are not included, or larger than {@link
+   * SbccSettings#getCommitDiffMaxFileSizeKb()}, are left out by pathspecs so git never reads them.
+   * Binary files are never matched, git does not print their content. Merge commits are not
+   * diffed, lines they bring in are matched in the commits that are merged, but not lines added
+   * when resolving conflicts.
+   *
+   * @return the first few matching lines, per commit id.
+   */
+  public Map<String, String> findRejectedContent(
+      final SbccSettings settings,
+      final Repository repository,
+      final Collection<String> commitIds) {
+    final Map<String, String> rejectedContent = new HashMap<>();
     final Optional<GitScmCommandBuilder> gitScmCommandBuilder =
         findGitScmCommandBuilder(repository);
-    if (!gitScmCommandBuilder.isPresent()) {
-      return newArrayList();
+    if (!gitScmCommandBuilder.isPresent() || commitIds.isEmpty()) {
+      return rejectedContent;
+    }
+    final List<String> pathspecs = newArrayList();
+    pathspecs.addAll(settings.getCommitDiffIncludes());
+    for (final String exclude : settings.getCommitDiffExcludes()) {
+      pathspecs.add(":(exclude)" + exclude);
     }
 
-    final List<SbccChangeSet> result = new ArrayList<>();
-    if (isTag(refId)) {
-      if (!settings.shouldExcludeTagCommits()) {
-        result.addAll(getTag(type, toHash, gitScmCommandBuilder));
+    // One diff-tree for all commits, unless some commits have files that are too large
+    final Map<Set<String>, List<String>> commitsByLargeFiles = new LinkedHashMap<>();
+    if (settings.hasCommitDiffMaxFileSize()) {
+      final Map<String, Map<String, Long>> fileSizes =
+          findFileSizes(repository, commitIds, pathspecs);
+      for (final String commitId : commitIds) {
+        final Set<String> largeFiles = new TreeSet<>();
+        if (fileSizes.containsKey(commitId)) {
+          final Map<String, Long> sizesByPath = fileSizes.get(commitId);
+          for (final String path : sizesByPath.keySet()) {
+            if (sizesByPath.get(path) > toBytes(settings.getCommitDiffMaxFileSizeKb())) {
+              largeFiles.add(path);
+            }
+          }
+        }
+        if (!commitsByLargeFiles.containsKey(largeFiles)) {
+          commitsByLargeFiles.put(largeFiles, new ArrayList<String>());
+        }
+        commitsByLargeFiles.get(largeFiles).add(commitId);
       }
+    } else {
+      commitsByLargeFiles.put(new TreeSet<String>(), newArrayList(commitIds));
     }
-    result.addAll(getCommits(toHash, gitScmCommandBuilder, settings));
-    return result;
+
+    for (final Set<String> largeFiles : commitsByLargeFiles.keySet()) {
+      final List<String> commitPathspecs = newArrayList(pathspecs);
+      for (final String largeFile : largeFiles) {
+        commitPathspecs.add(":(exclude,literal)" + largeFile);
+      }
+      final GitScmCommandBuilder diffTree =
+          findGitScmCommandBuilder(repository)
+              .get() //
+              .command("diff-tree") //
+              .argument("--stdin") //
+              .argument("-p") //
+              .argument("-r") //
+              .argument("--root") //
+              .argument("--no-renames") //
+              .argument("--no-prefix") //
+              .argument("--no-color") //
+              .argument("--no-ext-diff") //
+              .argument("--no-textconv") //
+              .argument("--unified=0");
+      addPathspecs(diffTree, commitPathspecs);
+      final Map<String, String> found =
+          diffTree
+              .inputHandler(new ObjectIdsInputHandler(commitsByLargeFiles.get(largeFiles))) //
+              .build(new DiffContentOutputHandler(settings.getCommitDiffRegexp().get())) //
+              .call();
+      if (found != null) {
+        rejectedContent.putAll(found);
+      }
+    }
+    return rejectedContent;
+  }
+
+  /**
+   * Lists the changes of all commits with one diff-tree, and the sizes of their new blobs with one
+   * cat-file, without reading any content. The repository must be a git repository.
+   *
+   * @return size in bytes, per path of the files added or changed, per commit id.
+   */
+  private Map<String, Map<String, Long>> findFileSizes(
+      final Repository repository,
+      final Collection<String> commitIds,
+      final List<String> pathspecs) {
+    final Map<String, Map<String, Long>> fileSizes = new HashMap<>();
+    final GitScmCommandBuilder diffTree =
+        findGitScmCommandBuilder(repository)
+            .get() //
+            .command("diff-tree") //
+            .argument("--stdin") //
+            .argument("-r") //
+            .argument("--root") //
+            .argument("--no-renames") //
+            .argument("--no-abbrev");
+    addPathspecs(diffTree, pathspecs);
+    final Map<String, Map<String, String>> blobsByCommit =
+        diffTree
+            .inputHandler(new ObjectIdsInputHandler(commitIds)) //
+            .build(new DiffTreeOutputHandler()) //
+            .call();
+    if (blobsByCommit == null || blobsByCommit.isEmpty()) {
+      return fileSizes;
+    }
+    final Set<String> blobs = new LinkedHashSet<>();
+    for (final Map<String, String> blobsByPath : blobsByCommit.values()) {
+      blobs.addAll(blobsByPath.values());
+    }
+    if (blobs.isEmpty()) {
+      return fileSizes;
+    }
+
+    final Map<String, Long> sizes =
+        findGitScmCommandBuilder(repository)
+            .get() //
+            .command("cat-file") //
+            .argument("--batch-check") //
+            .inputHandler(new ObjectIdsInputHandler(blobs)) //
+            .build(new BatchCheckOutputHandler()) //
+            .call();
+    if (sizes == null) {
+      return fileSizes;
+    }
+    for (final String commitId : blobsByCommit.keySet()) {
+      final Map<String, String> blobsByPath = blobsByCommit.get(commitId);
+      final Map<String, Long> sizesByPath = new TreeMap<>();
+      for (final String path : blobsByPath.keySet()) {
+        final Long size = sizes.get(blobsByPath.get(path));
+        if (size != null) {
+          sizesByPath.put(path, size);
+        }
+      }
+      fileSizes.put(commitId, sizesByPath);
+    }
+    return fileSizes;
+  }
+
+  private static long toBytes(final int kb) {
+    return kb * 1024L;
+  }
+
+  private static void addPathspecs(
+      final GitScmCommandBuilder gitScmCommandBuilder, final List<String> pathspecs) {
+    if (pathspecs.isEmpty()) {
+      return;
+    }
+    gitScmCommandBuilder.argument("--");
+    for (final String pathspec : pathspecs) {
+      gitScmCommandBuilder.argument(pathspec);
+    }
+  }
+
+  private Optional<GitScmCommandBuilder> findGitScmCommandBuilder(final Repository repository) {
+    if (!GitScm.ID.equals(repository.getScmId())) {
+      logger.log(WARNING, "SCM " + repository.getScmId() + " not supported");
+      return Optional.absent();
+    }
+    return Optional.of((GitScmCommandBuilder) scmService.createBuilder(repository));
+  }
+
+  private static boolean isNewRef(final RefChange refChange) {
+    return isNullOrEmpty(refChange.getFromHash())
+        || ZERO_HASH.matcher(refChange.getFromHash()).matches();
   }
 
   public static boolean isTag(final String refId) {
@@ -80,48 +336,130 @@ public class ChangeSetsService {
     return refId.startsWith("refs/notes/");
   }
 
-  private List<SbccChangeSet> getCommits(
-      final String toHash,
-      final Optional<GitScmCommandBuilder> gitScmCommandBuilder,
-      final SbccSettings settings) {
+  /** Arguments, after --not, for the commits that are already in the repository. */
+  private List<String> getExclusions(
+      final SbccSettings settings, final Set<String> fromHashes, final boolean hasNewRef) {
+    final List<String> exclusions = newArrayList();
+    switch (settings.getExcludeCommits()) {
+      case FROM_HASH:
+        exclusions.addAll(fromHashes);
+        if (hasNewRef) {
+          exclusions.add("--branches");
+          exclusions.add("--tags");
+        }
+        break;
+      case BRANCHES_AND_TAGS:
+        exclusions.add("--branches");
+        exclusions.add("--tags");
+        break;
+      default:
+        exclusions.add("--all");
+    }
+    return exclusions;
+  }
+
+  /**
+   * Walks all tips at once. Topological order guarantees that a commit is printed after all of its
+   * new children, so the output handler can attribute each commit to the refs it was reached from.
+   * It does not delay the first commit: with commits excluded after --not, git finds all new
+   * commits before it prints the first one, in any order.
+   */
+  private void streamCommits(
+      final Map<String, Set<String>> refsByTip,
+      final List<String> exclusions,
+      final Repository repository,
+      final SbccSettings settings,
+      final ExecutorService gitExecutor,
+      final ChangeSetConsumer consumer)
+      throws IOException, ExecutionException {
     final GitScmCommandBuilder revListBuilder =
-        gitScmCommandBuilder
+        findGitScmCommandBuilder(repository)
             .get() //
             .command("rev-list") //
-            .argument("--pretty=" + FORMAT) //
-            .argument(toHash) //
-            .argument("--not") //
-            .argument("--all");
-
-    final List<SbccChangeSet> found =
-        revListBuilder //
-            .build(new RevListOutputHandler(settings)) //
-            .call();
+            .argument("--topo-order") //
+            .argument("--pretty=" + FORMAT);
+    // No --max-count, git would count merge commits that may be excluded. The consumer stops the
+    // walk when there are too many commits.
+    for (final String tip : refsByTip.keySet()) {
+      revListBuilder.argument(tip);
+    }
+    revListBuilder.argument("--not");
+    for (final String exclusion : exclusions) {
+      revListBuilder.argument(exclusion);
+    }
 
-    if (found != null) {
-      for (final SbccChangeSet sbccChangeSet : found) {
-        logger.log(INFO, "Checking " + sbccChangeSet.getId());
+    final BlockingQueue<ParsedChangeSet> parsed = new ArrayBlockingQueue<>(PARSED_QUEUE_SIZE);
+    final RevListOutputHandler revListOutputHandler =
+        new RevListOutputHandler(
+            settings,
+            refsByTip,
+            new ChangeSetConsumer() {
+              @Override
+              public boolean accept(final String refId, final SbccChangeSet sbccChangeSet)
+                  throws IOException {
+                try {
+                  parsed.put(new ParsedChangeSet(refId, sbccChangeSet));
+                  return true;
+                } catch (final InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new InterruptedIOException("Consumer of " + refId + " is gone");
+                }
+              }
+            });
+    final GitCommand<Void> revList = revListBuilder.build(revListOutputHandler);
+    final Future<Void> walk =
+        gitExecutor.submit(
+            new Callable<Void>() {
+              @Override
+              public Void call() throws InterruptedException {
+                try {
+                  return revList.call();
+                } finally {
+                  parsed.put(END_OF_WALK);
+                }
+              }
+            });
+    try {
+      ParsedChangeSet next;
+      while ((next = parsed.take()) != END_OF_WALK) {
+        logger.log(INFO, "Checking " + next.sbccChangeSet.getId() + " in " + next.refId);
+        if (!consumer.accept(next.refId, next.sbccChangeSet)) {
+          logger.log(INFO, "Stopping walk of " + refsByTip.keySet());
+          revListOutputHandler.cancel();
+          return;
+        }
       }
-      return found;
+      walk.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while walking " + refsByTip.keySet());
+    } finally {
+      // Stops git if the consumer failed or stopped
+      walk.cancel(true);
     }
-    return newArrayList();
   }
 
-  private List<SbccChangeSet> getTag(
-      final RefChangeType type,
-      final String toHash,
-      final Optional<GitScmCommandBuilder> gitScmCommandBuilder) {
-    if (type == DELETE) {
-      return new ArrayList<>();
+  private static class ParsedChangeSet {
+    private final String refId;
+    private final SbccChangeSet sbccChangeSet;
+
+    private ParsedChangeSet(final String refId, final SbccChangeSet sbccChangeSet) {
+      this.refId = refId;
+      this.sbccChangeSet = sbccChangeSet;
     }
+  }
 
+  private List<SbccChangeSet> getTag(
+      final String toHash,
+      final Repository repository,
+      final AnnotatedTagOutputHandler tagOutputHandler) {
     final SbccChangeSet sbccChangeSet =
-        gitScmCommandBuilder
+        findGitScmCommandBuilder(repository)
             .get() //
             .catFile() //
             .pretty() //
             .object(toHash) //
-            .build(new AnnotatedTagOutputHandler(toHash)) //
+            .build(tagOutputHandler) //
             .call();
 
     if (sbccChangeSet != null) {
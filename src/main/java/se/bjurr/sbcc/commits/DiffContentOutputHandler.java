@@ -0,0 +1,106 @@
+package se.bjurr.sbcc.commits;
+
+import static se.bjurr.sbcc.settings.SbccPatterns.getPattern;
+
+import com.atlassian.bitbucket.io.LineReader;
+import com.atlassian.bitbucket.io.LineReaderOutputHandler;
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Reads diff-tree --stdin -p --no-prefix output, that is each commit id followed by its patch, and
+ * matches the added lines against a regexp. Lines are matched as they are read. Only the first
+ * few matching lines of each commit are kept, so memory does not grow with the size of the diff.
+ */
+public class DiffContentOutputHandler extends LineReaderOutputHandler
+    implements CommandOutputHandler<Map<String, String>> {
+  private static final Pattern COMMIT_ID = Pattern.compile("[0-9a-f]{40,}( [0-9a-f]{40,})*");
+  /** Matching lines, of one commit, that are reported. */
+  private static final int MAX_MATCHES = 10;
+  /** Characters, of a matching line, that are reported. */
+  private static final int MAX_LINE_LENGTH = 200;
+
+  private final Pattern regexp;
+  private final Map<String, String> rejectedContent = new HashMap<>();
+
+  public DiffContentOutputHandler(final String regexp) {
+    super(Charset.forName("UTF-8"));
+    this.regexp = getPattern(regexp);
+  }
+
+  /** @return the matching lines, with their paths, per commit id with any matching line. */
+  @Nullable
+  @Override
+  public Map<String, String> getOutput() {
+    return rejectedContent;
+  }
+
+  @Override
+  protected void processReader(final LineReader lineReader) throws IOException {
+    String commitId = null;
+    String path = null;
+    boolean inHunk = false;
+    final StringBuilder matching = new StringBuilder();
+    int matches = 0;
+    String line;
+    while ((line = lineReader.readLine()) != null) {
+      if (COMMIT_ID.matcher(line).matches()) {
+        addRejectedContent(commitId, matching);
+        commitId = line.split(" ")[0];
+        path = null;
+        inHunk = false;
+        matching.setLength(0);
+        matches = 0;
+      } else if (line.startsWith("diff --git ")) {
+        // Lines of a hunk always start with a space, + or -, so this is the next file
+        path = null;
+        inHunk = false;
+      } else if (!inHunk) {
+        if (line.startsWith("+++ ")) {
+          path = toPath(line.substring(4));
+        } else if (line.startsWith("@@")) {
+          inHunk = true;
+        }
+      } else if (line.startsWith("+")
+          && commitId != null
+          && matches < MAX_MATCHES
+          && regexp.matcher(line).region(1, line.length()).find()) {
+        if (matches > 0) {
+          matching.append('\n');
+        }
+        matching.append("  ").append(path).append(": ").append(truncate(line.substring(1)));
+        matches++;
+      }
+    }
+    addRejectedContent(commitId, matching);
+  }
+
+  private void addRejectedContent(final String commitId, final StringBuilder matching) {
+    if (commitId != null && matching.length() > 0) {
+      rejectedContent.put(commitId, matching.toString());
+    }
+  }
+
+  private static String truncate(final String line) {
+    if (line.length() > MAX_LINE_LENGTH) {
+      return line.substring(0, MAX_LINE_LENGTH) + "...";
+    }
+    return line;
+  }
+
+  /**
+   * Git ends paths with spaces with a tab, and quotes paths with special characters.
+   */
+  private static String toPath(final String header) {
+    String path = header;
+    if (path.endsWith("\t")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return DiffTreeOutputHandler.unquote(path);
+  }
+}
@@ -0,0 +1,114 @@
+package se.bjurr.sbcc.commits;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import com.atlassian.bitbucket.io.LineReader;
+import com.atlassian.bitbucket.io.LineReaderOutputHandler;
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Reads diff-tree --stdin -r --no-abbrev output, that is each commit id followed by its raw
+ * changes. The output is the new blob id, per path, of the files that each commit adds or changes.
+ * Only object ids are read, not content.
+ */
+public class DiffTreeOutputHandler extends LineReaderOutputHandler
+    implements CommandOutputHandler<Map<String, Map<String, String>>> {
+  private static final Pattern COMMIT_ID = Pattern.compile("[0-9a-f]{40,}( [0-9a-f]{40,})*");
+  private static final Pattern ZERO_HASH = Pattern.compile("0+");
+  private static final String GITLINK_MODE = "160000";
+  /** Escaped characters in quoted paths, other than octal, quote and backslash. */
+  private static final String C_ESCAPES = "abtnvfr";
+  private static final String C_ESCAPED = "\u0007\b\t\n\u000b\f\r";
+
+  private final Map<String, Map<String, String>> blobsByCommit = new LinkedHashMap<>();
+
+  public DiffTreeOutputHandler() {
+    super(Charset.forName("UTF-8"));
+  }
+
+  @Nullable
+  @Override
+  public Map<String, Map<String, String>> getOutput() {
+    return blobsByCommit;
+  }
+
+  @Override
+  protected void processReader(final LineReader lineReader) throws IOException {
+    Map<String, String> blobs = null;
+    String line;
+    while ((line = lineReader.readLine()) != null) {
+      if (COMMIT_ID.matcher(line).matches()) {
+        blobs = new TreeMap<>();
+        blobsByCommit.put(line.split(" ")[0], blobs);
+        continue;
+      }
+      if (blobs == null || !line.startsWith(":")) {
+        continue;
+      }
+      // :100644 100644 oldBlob newBlob M<tab>path
+      final int tab = line.indexOf('\t');
+      if (tab < 0) {
+        continue;
+      }
+      final String[] fields = line.substring(1, tab).split(" ");
+      if (fields.length != 5) {
+        continue;
+      }
+      final String newMode = fields[1];
+      final String newBlob = fields[3];
+      if (GITLINK_MODE.equals(newMode) || ZERO_HASH.matcher(newBlob).matches()) {
+        continue;
+      }
+      blobs.put(unquote(line.substring(tab + 1)), newBlob);
+    }
+  }
+
+  /**
+   * Paths with special characters are quoted by git, with C escapes and the bytes of non ASCII
+   * characters in octal. They are decoded, so they can be used in literal pathspecs.
+   */
+  static String unquote(final String path) {
+    if (path.length() < 2 || !path.startsWith("\"") || !path.endsWith("\"")) {
+      return path;
+    }
+    final String quoted = path.substring(1, path.length() - 1);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int i = 0;
+    while (i < quoted.length()) {
+      final int c = quoted.codePointAt(i);
+      i += Character.charCount(c);
+      if (c != '\\' || i == quoted.length()) {
+        final byte[] encoded = new String(Character.toChars(c)).getBytes(UTF_8);
+        bytes.write(encoded, 0, encoded.length);
+      } else if (isOctal(quoted, i)) {
+        bytes.write(Integer.parseInt(quoted.substring(i, i + 3), 8));
+        i += 3;
+      } else {
+        final char escaped = quoted.charAt(i++);
+        final int index = C_ESCAPES.indexOf(escaped);
+        bytes.write(index < 0 ? escaped : C_ESCAPED.charAt(index));
+      }
+    }
+    return new String(bytes.toByteArray(), UTF_8);
+  }
+
+  private static boolean isOctal(final String quoted, final int start) {
+    if (start + 3 > quoted.length()) {
+      return false;
+    }
+    for (int i = start; i < start + 3; i++) {
+      if (quoted.charAt(i) < '0' || quoted.charAt(i) > '7') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,39 @@
+package se.bjurr.sbcc.commits;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.atlassian.bitbucket.scm.CommandInputHandler;
+import com.atlassian.bitbucket.scm.Watchdog;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/** Writes object ids, one per line, to git commands that read them with --stdin or --batch. */
+public class ObjectIdsInputHandler implements CommandInputHandler {
+  private final Iterable<String> objectIds;
+
+  public ObjectIdsInputHandler(final Iterable<String> objectIds) {
+    this.objectIds = objectIds;
+  }
+
+  @Override
+  public void process(final OutputStream input) {
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(input, UTF_8))) {
+      for (final String objectId : objectIds) {
+        writer.write(objectId);
+        writer.write('\n');
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void complete() {}
+
+  @Override
+  public void setWatchdog(final Watchdog watchdog) {}
+}
@@ -6,10 +6,14 @@ import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
 import com.atlassian.bitbucket.io.LineReader;
 import com.atlassian.bitbucket.io.LineReaderOutputHandler;
 import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import com.atlassian.bitbucket.scm.Watchdog;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,8 +21,12 @@ import se.bjurr.sbcc.data.SbccChangeSet;
 import se.bjurr.sbcc.data.SbccPerson;
 import se.bjurr.sbcc.settings.SbccSettings;
 
+/**
+ * Parses rev-list output and gives each commit to the consumer as soon as it is parsed, nothing is
+ * kept after that.
+ */
 public class RevListOutputHandler extends LineReaderOutputHandler
-    implements CommandOutputHandler<List<SbccChangeSet>> {
+    implements CommandOutputHandler<Void> {
   private static Logger logger = LoggerFactory.getLogger(RevListOutputHandler.class);
 
   private static final String RAW_BODY = "%B";
@@ -58,18 +66,42 @@ public class RevListOutputHandler extends LineReaderOutputHandler
   private static final String OUTPUT_END = "\u0003END\u0004";
   private static final String OUTPUT_NEW_LINE = "\u0002";
 
-  private final List<SbccChangeSet> commits = new ArrayList<>();
   private final SbccSettings settings;
-
-  public RevListOutputHandler(SbccSettings settings) {
+  private final ChangeSetConsumer consumer;
+  private volatile Watchdog watchdog;
+  private final Map<String, Set<String>> refsByTip;
+  /**
+   * Refs that reach a commit that is not yet parsed. Entries are added by children and removed when
+   * the commit itself is parsed, so this only holds the current frontier of the walk.
+   */
+  private final Map<String, Set<String>> reachedFrom = new HashMap<>();
+
+  /** @param refsByTip the refs pointing at each of the tips given to rev-list. */
+  public RevListOutputHandler(
+      SbccSettings settings, Map<String, Set<String>> refsByTip, ChangeSetConsumer consumer) {
     super(Charset.forName("UTF-8"));
     this.settings = settings;
+    this.refsByTip = refsByTip;
+    this.consumer = consumer;
   }
 
   @Nullable
   @Override
-  public List<SbccChangeSet> getOutput() {
-    return commits;
+  public Void getOutput() {
+    return null;
+  }
+
+  @Override
+  public void setWatchdog(Watchdog watchdog) {
+    super.setWatchdog(watchdog);
+    this.watchdog = watchdog;
+  }
+
+  /** Kills git, the rest of the output is not needed. */
+  public void cancel() {
+    if (watchdog != null) {
+      watchdog.cancel();
+    }
   }
 
   @Override
@@ -84,11 +116,15 @@ public class RevListOutputHandler extends LineReaderOutputHandler
       line = lineReader.readLine();
 
       String[] commitData = line.split(OUTPUT_NEW_LINE);
+      Set<String> refIds;
+      SbccChangeSet sbccChangeSet;
       try {
         String ref = commitData[0];
 
         boolean isMerge = commitData[1].contains(" ");
 
+        refIds = attribute(ref, commitData[1]);
+
         if (isMerge && settings.shouldExcludeMergeCommits()) {
           while ((line = lineReader.readLine()) != null && !line.equals(OUTPUT_END)) {
             // Read the rest of this object before continuing with next object
@@ -106,20 +142,68 @@ public class RevListOutputHandler extends LineReaderOutputHandler
 
         String message = parseMessage(lineReader);
 
-        SbccChangeSet sbccChangeSet =
+        sbccChangeSet =
             changeSetBuilder() //
                 .withCommitter(committer) //
                 .withAuthor(author) //
                 .withId(ref) //
                 .withMessage(message) //
                 .build();
-        commits.add(sbccChangeSet);
       } catch (Exception e) {
         logger.error("Unable to parse commit, commit data found:\n" + on('\n').join(commitData), e);
+        continue;
+      }
+      for (String refId : refIds) {
+        try {
+          if (!consumer.accept(refId, sbccChangeSet)) {
+            cancel();
+            return;
+          }
+        } catch (ExecutionException e) {
+          throw new IOException("Unable to check " + sbccChangeSet.getId(), e);
+        }
       }
     }
   }
 
+  /**
+   * Finds the refs that reach the given commit and passes them on to its parents. A commit that
+   * cannot be attributed is attributed to all refs, it should rather be checked too many times than
+   * not at all.
+   */
+  private Set<String> attribute(String commit, String parents) {
+    Set<String> refIds = reachedFrom.remove(commit);
+    if (refsByTip.containsKey(commit)) {
+      refIds = union(refIds, refsByTip.get(commit));
+    }
+    if (refIds == null) {
+      logger.warn("Unable to find ref of " + commit + ", checking it in all refs");
+      refIds = new TreeSet<>();
+      for (Set<String> tipRefIds : refsByTip.values()) {
+        refIds.addAll(tipRefIds);
+      }
+    }
+    for (String parent : parents.trim().split(" ")) {
+      if (!parent.isEmpty()) {
+        reachedFrom.put(parent, union(reachedFrom.get(parent), refIds));
+      }
+    }
+    return refIds;
+  }
+
+  /** The sets are shared between commits, so they are never changed once created. */
+  private Set<String> union(@Nullable Set<String> a, Set<String> b) {
+    if (a == null || a.equals(b)) {
+      return b;
+    }
+    if (a.containsAll(b)) {
+      return a;
+    }
+    Set<String> union = new TreeSet<>(a);
+    union.addAll(b);
+    return union;
+  }
+
   private String parseMessage(LineReader lineReader) throws IOException {
     String message = "";
 
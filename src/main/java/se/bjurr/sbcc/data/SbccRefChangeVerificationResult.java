@@ -50,6 +50,17 @@ public class SbccRefChangeVerificationResult {
     return sbccChangeSets.get(sbccChangeSet);
   }
 
+  /** Sets the result of a commit that was checked on its own. */
+  public void setChangeSetResult(
+      SbccChangeSet sbccChangeSet, SbccChangeSetVerificationResult changeSetResult) {
+    sbccChangeSets.put(sbccChangeSet, changeSetResult);
+  }
+
+  /** Forgets a commit that has nothing to report. */
+  public void removeChangeSet(SbccChangeSet sbccChangeSet) {
+    sbccChangeSets.remove(sbccChangeSet);
+  }
+
   public Map<SbccChangeSet, SbccChangeSetVerificationResult> getSbccChangeSets() {
     return sbccChangeSets;
   }
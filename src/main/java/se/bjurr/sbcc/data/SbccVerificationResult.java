@@ -8,6 +8,9 @@ import java.util.List;
 
 public class SbccVerificationResult {
   private final List<SbccRefChangeVerificationResult> refChanges = newArrayList();
+  private boolean failedFast;
+  private boolean tooManyCommits;
+  private boolean sampled;
 
   public void add(SbccRefChangeVerificationResult refChangeVerificationResults) {
     refChanges.add(refChangeVerificationResults);
@@ -17,7 +20,37 @@ public class SbccVerificationResult {
     return refChanges;
   }
 
+  /** True if validation was stopped, because of fail fast, before all commits were checked. */
+  public boolean isFailedFast() {
+    return failedFast;
+  }
+
+  public void setFailedFast(boolean failedFast) {
+    this.failedFast = failedFast;
+  }
+
+  /** True if the push has more commits than allowed, and is rejected because of that. */
+  public boolean isTooManyCommits() {
+    return tooManyCommits;
+  }
+
+  public void setTooManyCommits(boolean tooManyCommits) {
+    this.tooManyCommits = tooManyCommits;
+  }
+
+  /** True if only a sample of the commits, above the maximum number of commits, was checked. */
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  public void setSampled(boolean sampled) {
+    this.sampled = sampled;
+  }
+
   public boolean isAccepted() {
+    if (tooManyCommits) {
+      return FALSE;
+    }
     for (final SbccRefChangeVerificationResult c : refChanges) {
       if (c.hasErrors()) {
         return FALSE;
@@ -0,0 +1,32 @@
+package se.bjurr.sbcc.rest;
+
+import static com.atlassian.bitbucket.permission.Permission.ADMIN;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+
+import com.atlassian.bitbucket.permission.PermissionService;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import se.bjurr.sbcc.JqlValidator;
+
+/** State of the JIRA client shared by all pushes, at /rest/sbcc/1.0/jira/stats. */
+@Path("/jira")
+@Produces(APPLICATION_JSON)
+public class SbccJiraResource {
+  private final PermissionService permissionService;
+
+  public SbccJiraResource(PermissionService permissionService) {
+    this.permissionService = permissionService;
+  }
+
+  @GET
+  @Path("/stats")
+  public Response getStats() {
+    if (!permissionService.hasGlobalPermission(ADMIN)) {
+      return Response.status(FORBIDDEN).build();
+    }
+    return Response.ok(JqlValidator.getJiraClient().getCacheStats()).build();
+  }
+}
@@ -0,0 +1,16 @@
+package se.bjurr.sbcc.settings;
+
+/** Commits that are not new, and should not be checked, when walking the pushed commits. */
+public enum SbccExcludeCommits {
+  /** Commits reachable from any ref in the repository. */
+  ALL,
+  /**
+   * Commits reachable from any branch or tag. Other refs, like pull request refs, are not loaded.
+   */
+  BRANCHES_AND_TAGS,
+  /**
+   * Commits reachable from where the pushed refs pointed before. New refs fall back to {@link
+   * #BRANCHES_AND_TAGS}.
+   */
+  FROM_HASH
+}
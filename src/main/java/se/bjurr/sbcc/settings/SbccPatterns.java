@@ -0,0 +1,38 @@
+package se.bjurr.sbcc.settings;
+
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.cache.CacheBuilder.newBuilder;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled patterns, shared by all pushes. Settings, and therefore regular expressions, seldom
+ * change so the same few patterns are used over and over again.
+ */
+public class SbccPatterns {
+  private static final LoadingCache<String, Pattern> patterns =
+      newBuilder() //
+          .maximumSize(1000) //
+          .build(
+              new CacheLoader<String, Pattern>() {
+                @Override
+                public Pattern load(String regexp) {
+                  return Pattern.compile(regexp);
+                }
+              });
+
+  /** @throws java.util.regex.PatternSyntaxException if the regexp is invalid. */
+  public static Pattern getPattern(String regexp) {
+    try {
+      return patterns.getUnchecked(regexp);
+    } catch (UncheckedExecutionException e) {
+      throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private SbccPatterns() {}
+}
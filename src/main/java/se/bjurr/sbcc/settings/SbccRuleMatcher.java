@@ -0,0 +1,268 @@
+package se.bjurr.sbcc.settings;
+
+import static com.google.common.base.Optional.absent;
+import static java.util.Locale.ROOT;
+import static se.bjurr.sbcc.settings.SbccPatterns.getPattern;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Optional;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the rules, of all groups, that match a commit message. Each distinct regexp is run once per
+ * message, and not at all if the message is missing a literal that any match of it must contain.
+ * Built once per {@link SbccSettings}.
+ */
+public class SbccRuleMatcher {
+  private static final CharMatcher META_CHARS = CharMatcher.anyOf("\\^$.|?*+()[]{}");
+  private static final CharMatcher SINGLE_CHAR_ESCAPES =
+      CharMatcher.anyOf("dDsSwWbBAGZzhHvVRXtnrfae");
+
+  private final Map<String, RuleRegexp> ruleRegexps = new LinkedHashMap<>();
+
+  public SbccRuleMatcher(List<SbccGroup> groups) {
+    for (SbccGroup group : groups) {
+      for (SbccRule rule : group.getRules()) {
+        if (!ruleRegexps.containsKey(rule.getRegexp())) {
+          ruleRegexps.put(rule.getRegexp(), new RuleRegexp(rule.getRegexp()));
+        }
+      }
+    }
+  }
+
+  /** @return the regexps, of any rule, that are found in the message. */
+  public Set<String> findMatching(String message) {
+    Set<String> matching = new HashSet<>();
+    String lowerCaseMessage = null;
+    for (RuleRegexp ruleRegexp : ruleRegexps.values()) {
+      if (ruleRegexp.requiredLiteral.isPresent()) {
+        String searched = message;
+        if (ruleRegexp.ignoreCase) {
+          if (lowerCaseMessage == null) {
+            lowerCaseMessage = message.toLowerCase(ROOT);
+          }
+          searched = lowerCaseMessage;
+        }
+        if (!searched.contains(ruleRegexp.requiredLiteral.get())) {
+          continue;
+        }
+        if (ruleRegexp.isLiteral) {
+          matching.add(ruleRegexp.regexp);
+          continue;
+        }
+      }
+      if (getPattern(ruleRegexp.regexp).matcher(message).find()) {
+        matching.add(ruleRegexp.regexp);
+      }
+    }
+    return matching;
+  }
+
+  private static class RuleRegexp {
+    private final String regexp;
+    private final boolean isLiteral;
+    private final boolean ignoreCase;
+    private final Optional<String> requiredLiteral;
+
+    private RuleRegexp(String regexp) {
+      this.regexp = regexp;
+      this.isLiteral = !regexp.isEmpty() && META_CHARS.matchesNoneOf(regexp);
+      this.ignoreCase = regexp.startsWith("(?i)");
+      if (isLiteral) {
+        this.requiredLiteral = Optional.of(regexp);
+      } else {
+        this.requiredLiteral = findRequiredLiteral(regexp);
+      }
+    }
+  }
+
+  /**
+   * The longest literal that every match of the regexp contains, lower case if the regexp starts
+   * with (?i). Absent when there is none, or when the regexp is too complex to tell.
+   */
+  @VisibleForTesting
+  static Optional<String> findRequiredLiteral(String regexp) {
+    boolean ignoreCase = false;
+    int i = 0;
+    if (regexp.startsWith("(?i)")) {
+      ignoreCase = true;
+      i = 4;
+    }
+    String longest = "";
+    StringBuilder run = new StringBuilder();
+    boolean lastIsLiteral = false;
+    while (i < regexp.length()) {
+      char c = regexp.charAt(i);
+      if (c == '|' || c == ')') {
+        return absent();
+      } else if (c == '\\') {
+        if (i + 1 >= regexp.length()) {
+          return absent();
+        }
+        char escaped = regexp.charAt(i + 1);
+        if (Character.isLetterOrDigit(escaped)) {
+          if (!SINGLE_CHAR_ESCAPES.matches(escaped)) {
+            // Quoting, unicode classes, code points and back references
+            return absent();
+          }
+          longest = longest(longest, run);
+          run = new StringBuilder();
+          lastIsLiteral = false;
+        } else {
+          run.append(escaped);
+          lastIsLiteral = true;
+        }
+        i += 2;
+      } else if (c == '?' || c == '*' || c == '{') {
+        if (lastIsLiteral) {
+          removeLast(run);
+        }
+        longest = longest(longest, run);
+        run = new StringBuilder();
+        lastIsLiteral = false;
+        i = skipQuantifier(regexp, i);
+      } else if (c == '+') {
+        longest = longest(longest, run);
+        run = new StringBuilder();
+        lastIsLiteral = false;
+        i = skipQuantifier(regexp, i);
+      } else if (c == '(') {
+        if (isFlags(regexp, i)) {
+          return absent();
+        }
+        longest = longest(longest, run);
+        run = new StringBuilder();
+        lastIsLiteral = false;
+        i = skipGroup(regexp, i);
+      } else if (c == '[') {
+        longest = longest(longest, run);
+        run = new StringBuilder();
+        lastIsLiteral = false;
+        i = skipClass(regexp, i);
+      } else if (c == '.' || c == '^' || c == '$') {
+        longest = longest(longest, run);
+        run = new StringBuilder();
+        lastIsLiteral = false;
+        i++;
+      } else {
+        run.append(c);
+        lastIsLiteral = true;
+        i++;
+      }
+      if (i < 0) {
+        return absent();
+      }
+    }
+    longest = longest(longest, run);
+    if (longest.isEmpty()) {
+      return absent();
+    }
+    return Optional.of(ignoreCase ? longest.toLowerCase(ROOT) : longest);
+  }
+
+  private static String longest(String longest, StringBuilder run) {
+    return run.length() > longest.length() ? run.toString() : longest;
+  }
+
+  /** Removes the last character, that is made optional by a quantifier. */
+  private static void removeLast(StringBuilder run) {
+    run.setLength(run.length() - 1);
+    if (run.length() > 0 && Character.isHighSurrogate(run.charAt(run.length() - 1))) {
+      run.setLength(run.length() - 1);
+    }
+  }
+
+  /** True for (?i) and the like, that change how the rest of the regexp is matched. */
+  private static boolean isFlags(String regexp, int start) {
+    if (!regexp.startsWith("(?", start)) {
+      return false;
+    }
+    int i = start + 2;
+    while (i < regexp.length()
+        && (Character.isLetter(regexp.charAt(i)) || regexp.charAt(i) == '-')) {
+      i++;
+    }
+    return i > start + 2 && i < regexp.length() && regexp.charAt(i) == ')';
+  }
+
+  /** @return index after the quantifier, and its lazy or possessive suffix, or -1. */
+  private static int skipQuantifier(String regexp, int start) {
+    int i = start;
+    if (regexp.charAt(i) == '{') {
+      i = regexp.indexOf('}', i);
+      if (i < 0) {
+        return -1;
+      }
+    }
+    i++;
+    if (i < regexp.length() && (regexp.charAt(i) == '?' || regexp.charAt(i) == '+')) {
+      i++;
+    }
+    return i;
+  }
+
+  /** @return index after the group, or -1 if it does not end. */
+  private static int skipGroup(String regexp, int start) {
+    int depth = 0;
+    int i = start;
+    while (i < regexp.length()) {
+      char c = regexp.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        i = skipClass(regexp, i);
+        if (i < 0) {
+          return -1;
+        }
+        continue;
+      }
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  /** @return index after the character class, or -1 if it does not end. */
+  private static int skipClass(String regexp, int start) {
+    int depth = 0;
+    int i = start;
+    while (i < regexp.length()) {
+      char c = regexp.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        depth++;
+        if (regexp.startsWith("^", i + 1)) {
+          i++;
+        }
+        if (regexp.startsWith("]", i + 1)) {
+          // A ] first in a class is a literal
+          i++;
+        }
+      } else if (c == ']') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+      i++;
+    }
+    return -1;
+  }
+}
@@ -1,31 +1,43 @@
 package se.bjurr.sbcc.settings;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Optional.fromNullable;
 import static com.google.common.base.Strings.emptyToNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.hash.Hashing.sha256;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 import static java.lang.Integer.MAX_VALUE;
 import static java.lang.Integer.parseInt;
-import static java.util.regex.Pattern.compile;
 import static se.bjurr.sbcc.settings.SbccGroup.sbccGroup;
+import static se.bjurr.sbcc.settings.SbccPatterns.getPattern;
 import static se.bjurr.sbcc.settings.SbccRule.sbccRule;
 
 import com.atlassian.bitbucket.setting.Settings;
 import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
 import java.util.List;
 import java.util.regex.PatternSyntaxException;
 
 public class SbccSettings {
+  private static final int DEFAULT_JQL_MAX_CONCURRENCY = 4;
+  private static final Splitter GLOBS =
+      Splitter.onPattern("[,\\n]").trimResults().omitEmptyStrings();
+
   public static final String SETTING_ACCEPT_MESSAGE = "acceptMessage";
   public static final String SETTING_BRANCHES = "branches";
   public static final String SETTING_DRY_RUN = "dryRun";
   public static final String SETTING_DRY_RUN_MESSAGE = "dryRunMessage";
   public static final String SETTING_EXCLUDE_MERGE_COMMITS = "excludeMergeCommits";
   public static final String SETTING_EXCLUDE_TAG_COMMITS = "excludeTagCommits";
+  public static final String SETTING_EXCLUDE_COMMITS = "excludeCommits";
+  public static final String SETTING_FAIL_FAST_ERRORS = "failFastErrors";
+  public static final String SETTING_MAX_COMMITS = "maxCommits";
+  public static final String SETTING_MAX_COMMITS_SAMPLE = "maxCommitsSample";
+  public static final String SETTING_PARALLEL_COMMITS = "parallelCommits";
   public static final String SETTING_GROUP_ACCEPT = "groupAccept";
   public static final String SETTING_GROUP_MATCH = "groupMatch";
   public static final String SETTING_GROUP_MESSAGE = "groupMessage";
@@ -56,6 +68,9 @@ public class SbccSettings {
   public static final String SETTING_RULE_REGEXP = "ruleRegexp";
   public static final String SETTING_DIFF_REGEXP = "checkCommitDiffRegexp";
   public static final String SETTING_DIFF_REGEXP_MESSAGE = "checkCommitDiffRegexpMessage";
+  public static final String SETTING_DIFF_INCLUDE = "checkCommitDiffInclude";
+  public static final String SETTING_DIFF_EXCLUDE = "checkCommitDiffExclude";
+  public static final String SETTING_DIFF_MAX_FILE_SIZE = "checkCommitDiffMaxFileSize";
   public static final String SETTING_SIZE = "checkCommitSize";
   public static final String SETTING_SIZE_MESSAGE = "checkCommitSizeMessage";
   public static final String SETTING_BRANCH_REJECTION_REGEXP = "branchRejectionRegexp";
@@ -66,12 +81,19 @@ public class SbccSettings {
   public static final String SETTING_JQL_CHECK_MESSAGE = "jqlCheckMessage";
   public static final String SETTING_COMMIT_REGEXP = "commitRegexp";
   public static final String SETTING_JQL_CHECK_QUERY = "jqlCheckQuery";
+  public static final String SETTING_JQL_CHECK_BATCHED = "jqlCheckBatched";
+  public static final String SETTING_JQL_MAX_CONCURRENCY = "jqlMaxConcurrency";
+  public static final String SETTING_JQL_TIMEOUT = "jqlTimeout";
+  public static final String SETTING_JQL_TIMEOUT_ACCEPT = "jqlTimeoutAccept";
   public static final String SETTING_CHECK_PULLREQUESTS = "shouldCheckPullrequests";
   public static final String SETTING_CHECK_PULLREQUESTS_MESSAGE = "shouldCheckPullrequestsMessage";
   public static final String SETTING_IGNORE_USERS_PATTERN = "ignoreUsersPattern";
 
   private String commitDiffRegexp;
   private String commitDiffRegexpMessage;
+  private List<String> commitDiffIncludes = newArrayList();
+  private List<String> commitDiffExcludes = newArrayList();
+  private int commitDiffMaxFileSize;
   private String commitSizeMessage;
   private int commitSize;
   private String acceptMessage;
@@ -80,7 +102,9 @@ public class SbccSettings {
   private String dryRunMessage;
   private boolean excludeMergeCommits;
   private Boolean excludeTagCommits;
+  private SbccExcludeCommits excludeCommits = SbccExcludeCommits.ALL;
   private final List<SbccGroup> groups = newArrayList();
+  private SbccRuleMatcher ruleMatcher;
   private String rejectMessage;
   private boolean requireMatchingAuthorEmail;
   private boolean requireMatchingCommitterEmail;
@@ -99,6 +123,14 @@ public class SbccSettings {
   private Boolean jqlCheck;
   private String jqlCheckMessage;
   private String jqlCheckQuery;
+  private boolean jqlCheckBatched;
+  private int jqlMaxConcurrency = DEFAULT_JQL_MAX_CONCURRENCY;
+  private int jqlTimeout;
+  private boolean jqlTimeoutAccept;
+  private int failFastErrors;
+  private int maxCommits;
+  private boolean maxCommitsSample;
+  private int parallelCommits;
   private String commitRegexp;
   private Boolean requireMatchingAuthorEmailInBitbucket;
   private Boolean requireMatchingAuthorNameInBitbucket;
@@ -106,6 +138,7 @@ public class SbccSettings {
   private boolean shouldCheckPullRequests;
   private String shouldCheckPullRequestsMessage;
   private String ignoreUsersPattern;
+  private String fingerprint;
 
   public static SbccSettings sscSettings(final Settings settings) throws ValidationException {
     final SbccSettings sbccSettings = new SbccSettings();
@@ -143,6 +176,8 @@ public class SbccSettings {
         .withCheckCommitDiffRegexp(
             validateRegExp(SETTING_DIFF_REGEXP, settings.getString(SETTING_DIFF_REGEXP)))
         .withCheckCommitDiffRegexpMessage(settings.getString(SETTING_DIFF_REGEXP_MESSAGE))
+        .withCheckCommitDiffIncludes(settings.getString(SETTING_DIFF_INCLUDE))
+        .withCheckCommitDiffExcludes(settings.getString(SETTING_DIFF_EXCLUDE))
         .withCheckCommitSizeMessage(settings.getString(SETTING_SIZE_MESSAGE))
         .withBranchRejectionRegexp(
             validateRegExp(
@@ -155,6 +190,9 @@ public class SbccSettings {
         .withJqlCheckMessage(settings.getString(SETTING_JQL_CHECK_MESSAGE))
         .withCommitRegexp(settings.getString(SETTING_COMMIT_REGEXP))
         .withJqlCheckQuery(settings.getString(SETTING_JQL_CHECK_QUERY))
+        .withJqlCheckBatched(settings.getBoolean(SETTING_JQL_CHECK_BATCHED))
+        .withJqlTimeoutAccept(settings.getBoolean(SETTING_JQL_TIMEOUT_ACCEPT))
+        .withMaxCommitsSample(settings.getBoolean(SETTING_MAX_COMMITS_SAMPLE))
         .withShouldCheckPullRequests(settings.getBoolean(SETTING_CHECK_PULLREQUESTS))
         .withShouldCheckPullRequestsMessage(settings.getString(SETTING_CHECK_PULLREQUESTS_MESSAGE))
         .withIgnoreUsersPattern(settings.getString(SETTING_IGNORE_USERS_PATTERN));
@@ -165,6 +203,58 @@ public class SbccSettings {
     } catch (final Exception e) {
       throw new ValidationException(SETTING_SIZE, "Not an integer!");
     }
+    try {
+      if (!isNullOrEmpty(settings.getString(SETTING_DIFF_MAX_FILE_SIZE))) {
+        sbccSettings.withCheckCommitDiffMaxFileSize(
+            parseInt(settings.getString(SETTING_DIFF_MAX_FILE_SIZE)));
+      }
+    } catch (final Exception e) {
+      throw new ValidationException(SETTING_DIFF_MAX_FILE_SIZE, "Not a positive integer!");
+    }
+    try {
+      if (!isNullOrEmpty(settings.getString(SETTING_JQL_MAX_CONCURRENCY))) {
+        sbccSettings.withJqlMaxConcurrency(
+            parseInt(settings.getString(SETTING_JQL_MAX_CONCURRENCY)));
+      }
+    } catch (final Exception e) {
+      throw new ValidationException(SETTING_JQL_MAX_CONCURRENCY, "Not a positive integer!");
+    }
+    try {
+      if (!isNullOrEmpty(settings.getString(SETTING_JQL_TIMEOUT))) {
+        sbccSettings.withJqlTimeout(parseInt(settings.getString(SETTING_JQL_TIMEOUT)));
+      }
+    } catch (final Exception e) {
+      throw new ValidationException(SETTING_JQL_TIMEOUT, "Not a positive integer!");
+    }
+    try {
+      if (!isNullOrEmpty(settings.getString(SETTING_EXCLUDE_COMMITS))) {
+        sbccSettings.withExcludeCommits(
+            SbccExcludeCommits.valueOf(settings.getString(SETTING_EXCLUDE_COMMITS)));
+      }
+    } catch (final Exception e) {
+      throw new ValidationException(SETTING_EXCLUDE_COMMITS, "Not a valid option!");
+    }
+    try {
+      if (!isNullOrEmpty(settings.getString(SETTING_FAIL_FAST_ERRORS))) {
+        sbccSettings.withFailFastErrors(parseInt(settings.getString(SETTING_FAIL_FAST_ERRORS)));
+      }
+    } catch (final Exception e) {
+      throw new ValidationException(SETTING_FAIL_FAST_ERRORS, "Not a positive integer!");
+    }
+    try {
+      if (!isNullOrEmpty(settings.getString(SETTING_MAX_COMMITS))) {
+        sbccSettings.withMaxCommits(parseInt(settings.getString(SETTING_MAX_COMMITS)));
+      }
+    } catch (final Exception e) {
+      throw new ValidationException(SETTING_MAX_COMMITS, "Not a positive integer!");
+    }
+    try {
+      if (!isNullOrEmpty(settings.getString(SETTING_PARALLEL_COMMITS))) {
+        sbccSettings.withParallelCommits(parseInt(settings.getString(SETTING_PARALLEL_COMMITS)));
+      }
+    } catch (final Exception e) {
+      throw new ValidationException(SETTING_PARALLEL_COMMITS, "Not a positive integer!");
+    }
     for (int g = 0; g < 1000; g++) {
       final Optional<String> accept =
           fromNullable(settings.getString(SETTING_GROUP_ACCEPT + "[" + g + "]"));
@@ -205,9 +295,33 @@ public class SbccSettings {
                 .withRules(rules));
       }
     }
+    if (sbccSettings.shouldCheckJql() && sbccSettings.shouldBatchJql()) {
+      if (!sbccSettings.getCommitRegexp().isPresent()) {
+        throw new ValidationException(
+            SETTING_COMMIT_REGEXP, "Needed to find the issues when batching JQL!");
+      }
+      if (sbccSettings.getJqlCheckQuery().contains("${REGEXP}")) {
+        throw new ValidationException(
+            SETTING_JQL_CHECK_QUERY, "Cannot use REGEXP when batching JQL, issues are added!");
+      }
+    }
+    precompile(sbccSettings.getIgnoreUsersPattern());
+    precompile(sbccSettings.getCommitRegexp());
+    sbccSettings.ruleMatcher = new SbccRuleMatcher(sbccSettings.getGroups());
     return sbccSettings;
   }
 
+  /** Regexps that are not validated are compiled when first used instead, if they are invalid. */
+  private static void precompile(final Optional<String> regexp) {
+    if (regexp.isPresent()) {
+      try {
+        getPattern(regexp.get());
+      } catch (final PatternSyntaxException ex) {
+        // Reported when used
+      }
+    }
+  }
+
   private SbccSettings withRequireMatchingAuthorNameInBitbucketSlug(
       final Boolean requireMatchingAuthorNameInBitbucketSlug) {
     this.requireMatchingAuthorNameInBitbucketSlug =
@@ -260,6 +374,124 @@ public class SbccSettings {
     return this;
   }
 
+  private SbccSettings withJqlCheckBatched(final Boolean b) {
+    this.jqlCheckBatched = firstNonNull(b, FALSE);
+    return this;
+  }
+
+  private SbccSettings withJqlMaxConcurrency(final int jqlMaxConcurrency) {
+    if (jqlMaxConcurrency < 1) {
+      throw new IllegalArgumentException("Max concurrency must be positive");
+    }
+    this.jqlMaxConcurrency = jqlMaxConcurrency;
+    return this;
+  }
+
+  private SbccSettings withJqlTimeout(final int jqlTimeout) {
+    if (jqlTimeout < 1) {
+      throw new IllegalArgumentException("Timeout must be positive");
+    }
+    this.jqlTimeout = jqlTimeout;
+    return this;
+  }
+
+  private SbccSettings withJqlTimeoutAccept(final Boolean b) {
+    this.jqlTimeoutAccept = firstNonNull(b, FALSE);
+    return this;
+  }
+
+  private SbccSettings withFailFastErrors(final int failFastErrors) {
+    if (failFastErrors < 0) {
+      throw new IllegalArgumentException("Fail fast errors must not be negative");
+    }
+    this.failFastErrors = failFastErrors;
+    return this;
+  }
+
+  /** Number of rejected commits after which the push is rejected without checking the rest. */
+  public int getFailFastErrors() {
+    return failFastErrors;
+  }
+
+  public boolean shouldFailFast() {
+    return failFastErrors > 0;
+  }
+
+  private SbccSettings withMaxCommits(final int maxCommits) {
+    if (maxCommits < 0) {
+      throw new IllegalArgumentException("Max commits must not be negative");
+    }
+    this.maxCommits = maxCommits;
+    return this;
+  }
+
+  private SbccSettings withMaxCommitsSample(final Boolean b) {
+    this.maxCommitsSample = firstNonNull(b, FALSE);
+    return this;
+  }
+
+  /**
+   * Number of commits, of one push, that are checked. Annotated tags are not counted. 0 for no
+   * limit.
+   */
+  public int getMaxCommits() {
+    return maxCommits;
+  }
+
+  public boolean hasMaxCommits() {
+    return maxCommits > 0;
+  }
+
+  /**
+   * Check a sample of the commits above {@link #getMaxCommits()}, instead of rejecting the push.
+   */
+  public boolean shouldSampleAboveMaxCommits() {
+    return maxCommitsSample;
+  }
+
+  private SbccSettings withParallelCommits(final int parallelCommits) {
+    if (parallelCommits < 0) {
+      throw new IllegalArgumentException("Parallel commits must not be negative");
+    }
+    this.parallelCommits = parallelCommits;
+    return this;
+  }
+
+  /** Number of commits, of one push, above which commits are checked in parallel. */
+  public int getParallelCommits() {
+    return parallelCommits;
+  }
+
+  public boolean shouldCheckInParallel() {
+    return parallelCommits > 0;
+  }
+
+  /** Number of JQL queries that may be run at the same time, for one push. */
+  public int getJqlMaxConcurrency() {
+    return jqlMaxConcurrency;
+  }
+
+  /** Seconds that a push may spend waiting for JIRA, 0 when not set, for no limit. */
+  public int getJqlTimeout() {
+    return jqlTimeout;
+  }
+
+  /**
+   * Accept, instead of reject, commits that could not be checked within the timeout or because
+   * JIRA is unavailable.
+   */
+  public boolean shouldAcceptJqlOnTimeout() {
+    return jqlTimeoutAccept;
+  }
+
+  /**
+   * Query JIRA once per push with all issues found by {@link #getCommitRegexp()}, instead of once
+   * per commit and issue.
+   */
+  public boolean shouldBatchJql() {
+    return jqlCheckBatched;
+  }
+
   public Boolean shouldCheckJql() {
     return jqlCheck;
   }
@@ -296,6 +528,24 @@ public class SbccSettings {
     return this;
   }
 
+  private SbccSettings withCheckCommitDiffIncludes(final String string) {
+    this.commitDiffIncludes = GLOBS.splitToList(nullToEmpty(string));
+    return this;
+  }
+
+  private SbccSettings withCheckCommitDiffExcludes(final String string) {
+    this.commitDiffExcludes = GLOBS.splitToList(nullToEmpty(string));
+    return this;
+  }
+
+  private SbccSettings withCheckCommitDiffMaxFileSize(final int commitDiffMaxFileSize) {
+    if (commitDiffMaxFileSize < 0) {
+      throw new IllegalArgumentException("Max file size must not be negative");
+    }
+    this.commitDiffMaxFileSize = commitDiffMaxFileSize;
+    return this;
+  }
+
   private SbccSettings withBranchRejectionRegexp(final String string) {
     this.branchRejectionRegexp = emptyToNull(nullToEmpty(string).trim());
     return this;
@@ -322,7 +572,7 @@ public class SbccSettings {
       return null;
     }
     try {
-      compile(regexp);
+      getPattern(regexp);
     } catch (final PatternSyntaxException ex) {
       throw new ValidationException(
           field, "Invalid Regexp: " + ex.getMessage().replaceAll("\n", " "));
@@ -348,6 +598,11 @@ public class SbccSettings {
     return groups;
   }
 
+  /** Matches the rules of all groups against a commit message. */
+  public SbccRuleMatcher getRuleMatcher() {
+    return ruleMatcher;
+  }
+
   public Optional<String> getRejectMessage() {
     return fromNullable(rejectMessage);
   }
@@ -380,6 +635,10 @@ public class SbccSettings {
     return excludeMergeCommits;
   }
 
+  public SbccExcludeCommits getExcludeCommits() {
+    return excludeCommits;
+  }
+
   public Boolean shouldExcludeTagCommits() {
     return excludeTagCommits;
   }
@@ -408,6 +667,25 @@ public class SbccSettings {
     return fromNullable(commitDiffRegexpMessage);
   }
 
+  /** Paths, or globs like *.java, of the only files scanned by the diff regexp. Empty for all. */
+  public List<String> getCommitDiffIncludes() {
+    return commitDiffIncludes;
+  }
+
+  /** Paths, or globs like *.min.js, of files that are never scanned by the diff regexp. */
+  public List<String> getCommitDiffExcludes() {
+    return commitDiffExcludes;
+  }
+
+  /** Files larger than this, in kb, are not scanned by the diff regexp. 0 for no limit. */
+  public int getCommitDiffMaxFileSizeKb() {
+    return commitDiffMaxFileSize;
+  }
+
+  public boolean hasCommitDiffMaxFileSize() {
+    return commitDiffMaxFileSize > 0;
+  }
+
   public int getCommitSizeKb() {
     if (commitSize == 0) {
       return MAX_VALUE;
@@ -445,6 +723,11 @@ public class SbccSettings {
     return this;
   }
 
+  private SbccSettings withExcludeCommits(final SbccExcludeCommits excludeCommits) {
+    this.excludeCommits = excludeCommits;
+    return this;
+  }
+
   private SbccSettings withExcludeTagCommits(final Boolean excludeTagCommits) {
     this.excludeTagCommits = firstNonNull(excludeTagCommits, FALSE);
     return this;
@@ -557,12 +840,32 @@ public class SbccSettings {
     return fromNullable(ignoreUsersPattern);
   }
 
+  /** Identifies these settings, rules included. Same settings give the same fingerprint. */
+  public String getFingerprint() {
+    if (fingerprint == null) {
+      final StringBuilder sb = new StringBuilder(toString());
+      for (final SbccGroup group : groups) {
+        for (final SbccRule rule : group.getRules()) {
+          sb.append('\n').append(rule.getRegexp()).append(' ').append(rule.getMessage().orNull());
+        }
+      }
+      fingerprint = sha256().hashString(sb, UTF_8).toString();
+    }
+    return fingerprint;
+  }
+
   @Override
   public String toString() {
     return "SbccSettings [commitDiffRegexp="
         + commitDiffRegexp
         + ", commitDiffRegexpMessage="
         + commitDiffRegexpMessage
+        + ", commitDiffIncludes="
+        + commitDiffIncludes
+        + ", commitDiffExcludes="
+        + commitDiffExcludes
+        + ", commitDiffMaxFileSize="
+        + commitDiffMaxFileSize
         + ", commitSizeMessage="
         + commitSizeMessage
         + ", commitSize="
@@ -579,6 +882,8 @@ public class SbccSettings {
         + excludeMergeCommits
         + ", excludeTagCommits="
         + excludeTagCommits
+        + ", excludeCommits="
+        + excludeCommits
         + ", groups="
         + groups
         + ", rejectMessage="
@@ -617,6 +922,22 @@ public class SbccSettings {
         + jqlCheckMessage
         + ", jqlCheckQuery="
         + jqlCheckQuery
+        + ", jqlCheckBatched="
+        + jqlCheckBatched
+        + ", jqlMaxConcurrency="
+        + jqlMaxConcurrency
+        + ", jqlTimeout="
+        + jqlTimeout
+        + ", jqlTimeoutAccept="
+        + jqlTimeoutAccept
+        + ", failFastErrors="
+        + failFastErrors
+        + ", maxCommits="
+        + maxCommits
+        + ", maxCommitsSample="
+        + maxCommitsSample
+        + ", parallelCommits="
+        + parallelCommits
         + ", commitRegexp="
         + commitRegexp
         + ", requireMatchingAuthorEmailInBitbucket="
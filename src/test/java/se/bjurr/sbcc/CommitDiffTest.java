@@ -0,0 +1,46 @@
+package se.bjurr.sbcc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_JIRA;
+import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_DIFF_REGEXP;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_DIFF_REGEXP_MESSAGE;
+import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
+
+import java.io.IOException;
+import org.junit.Test;
+
+public class CommitDiffTest {
+
+  @Test
+  public void testThatCommitAddingRejectedContentIsRejected() throws IOException {
+    final String output =
+        refChangeBuilder()
+            .withSetting(SETTING_DIFF_REGEXP, "password\\s*=")
+            .withSetting(SETTING_DIFF_REGEXP_MESSAGE, "Do not commit secrets")
+            .withChangeSet(changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withChangeSet(changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withRejectedContent("2", "  db.properties: password = secret")
+            .build()
+            .run()
+            .wasRejected()
+            .getOutputAll();
+
+    assertTrue(output, output.contains("\n2 Tomas <my@email.com>"));
+    assertTrue(output, output.contains("- password\\s*=:\n  db.properties: password = secret"));
+    assertTrue(output, output.contains("  Do not commit secrets\n"));
+    assertFalse(output, output.contains("\n1 Tomas <my@email.com>"));
+  }
+
+  @Test
+  public void testThatCommitsWithoutRejectedContentAreAccepted() throws IOException {
+    refChangeBuilder()
+        .withSetting(SETTING_DIFF_REGEXP, "password\\s*=")
+        .withChangeSet(changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).build())
+        .build()
+        .run()
+        .wasAccepted()
+        .hasNoOutput();
+  }
+}
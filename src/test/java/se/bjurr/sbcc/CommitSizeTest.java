@@ -0,0 +1,46 @@
+package se.bjurr.sbcc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_JIRA;
+import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_SIZE;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_SIZE_MESSAGE;
+import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
+
+import java.io.IOException;
+import org.junit.Test;
+
+public class CommitSizeTest {
+
+  @Test
+  public void testThatCommitWithTooLargeFileIsRejected() throws IOException {
+    final String output =
+        refChangeBuilder()
+            .withSetting(SETTING_SIZE, "100")
+            .withSetting(SETTING_SIZE_MESSAGE, "Use LFS for large files")
+            .withChangeSet(changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withChangeSet(changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withLargeFile("2", "assets/video.mp4", 2048)
+            .build()
+            .run()
+            .wasRejected()
+            .getOutputAll();
+
+    assertTrue(output, output.contains("\n2 Tomas <my@email.com>"));
+    assertTrue(output, output.contains("- assets/video.mp4 2048kb > 100kb\n"));
+    assertTrue(output, output.contains("  Use LFS for large files\n"));
+    assertFalse(output, output.contains("\n1 Tomas <my@email.com>"));
+  }
+
+  @Test
+  public void testThatCommitsWithoutLargeFilesAreAccepted() throws IOException {
+    refChangeBuilder()
+        .withSetting(SETTING_SIZE, "100")
+        .withChangeSet(changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).build())
+        .build()
+        .run()
+        .wasAccepted()
+        .hasNoOutput();
+  }
+}
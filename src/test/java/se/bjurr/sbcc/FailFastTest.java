@@ -0,0 +1,55 @@
+package se.bjurr.sbcc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_NO_ISSUE;
+import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_FAIL_FAST_ERRORS;
+import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
+
+import java.io.IOException;
+import org.junit.Test;
+import se.bjurr.sbcc.util.RefChangeBuilder;
+
+public class FailFastTest {
+
+  @Test
+  public void testThatPushIsRejectedWithoutCheckingCommitsAfterTheFirstRejected()
+      throws IOException {
+    final RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withSetting(SETTING_FAIL_FAST_ERRORS, "1")
+            .withGroupAcceptingAtLeastOneJira()
+            .withChangeSet(
+                changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_NO_ISSUE).build())
+            .withChangeSet(
+                changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_NO_ISSUE).build())
+            .build()
+            .run()
+            .wasRejected();
+
+    final String output = refChangeBuilder.getOutputAll();
+    assertTrue(output, output.contains("1 Tomas <my@email.com>"));
+    assertFalse(output, output.contains("2 Tomas <my@email.com>"));
+    assertTrue(output, output.contains("Stopped after 1 rejected"));
+  }
+
+  @Test
+  public void testThatAllCommitsAreCheckedWhenFailFastIsNotReached() throws IOException {
+    final RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withSetting(SETTING_FAIL_FAST_ERRORS, "3")
+            .withGroupAcceptingAtLeastOneJira()
+            .withChangeSet(
+                changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_NO_ISSUE).build())
+            .withChangeSet(
+                changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_NO_ISSUE).build())
+            .build()
+            .run()
+            .wasRejected();
+
+    final String output = refChangeBuilder.getOutputAll();
+    assertTrue(output, output.contains("2 Tomas <my@email.com>"));
+    assertFalse(output, output.contains("Stopped after"));
+  }
+}
@@ -1,18 +1,36 @@
 package se.bjurr.sbcc;
 
 import static java.lang.Boolean.TRUE;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static se.bjurr.sbcc.JiraCircuitBreaker.State.CLOSED;
+import static se.bjurr.sbcc.JiraCircuitBreaker.State.OPEN;
 import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
+import static se.bjurr.sbcc.JqlValidator.setJiraClient;
 import static se.bjurr.sbcc.data.SbccPersonBuilder.sbccPersonBuilder;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_COMMIT_REGEXP;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_JQL_CHECK;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_JQL_CHECK_BATCHED;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_JQL_CHECK_MESSAGE;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_JQL_CHECK_QUERY;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_JQL_TIMEOUT;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_JQL_TIMEOUT_ACCEPT;
 import static se.bjurr.sbcc.util.RefChangeBuilder.JIRA_REGEXP;
 import static se.bjurr.sbcc.util.RefChangeBuilder.JIRA_RESPONSE_EMPTY;
 import static se.bjurr.sbcc.util.RefChangeBuilder.JIRA_RESPONSE_ONE;
 import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
 
+import com.atlassian.applinks.api.ApplicationLinkService;
+import com.atlassian.sal.api.net.Response;
+import com.atlassian.sal.api.net.ResponseException;
+import com.atlassian.sal.api.net.ResponseStatusException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
+import se.bjurr.sbcc.util.RefChangeBuilder;
 
 public class JqlTest {
 
@@ -227,4 +245,167 @@ public class JqlTest {
             "refs/heads/master e2bc4ed003 -> af35d5c1a4   1 Tomas <my@email.com> >>> AB-1234 fixing stuff CD-5678  - JQL: issue = AB-1234   Issue must exist!  - JQL: issue = CD-5678   Issue must exist!")
         .wasRejected();
   }
+
+  @Test
+  public void testThatJQLQueriesCanBeBatched() throws Exception {
+    refChangeBuilder()
+        .fakeJiraResponseJson(
+            "key in (\"AB-1\", \"AB-2\") AND (" + JQL_STATUS_IN_PROGRESS + ")",
+            "{\"total\": 1, \"issues\": [{\"key\": \"AB-1\"}]}")
+        .withChangeSet(changeSetBuilder().withId("1").withMessage("AB-1 fixing stuff").build())
+        .withChangeSet(changeSetBuilder().withId("2").withMessage("AB-2 fixing stuff").build())
+        .withChangeSet(
+            changeSetBuilder().withId("3").withMessage("AB-2 AB-1 fixing stuff").build())
+        .withSetting(SETTING_JQL_CHECK, TRUE)
+        .withSetting(SETTING_JQL_CHECK_BATCHED, TRUE)
+        .withSetting(SETTING_COMMIT_REGEXP, JIRA_REGEXP)
+        .withSetting(SETTING_JQL_CHECK_QUERY, JQL_STATUS_IN_PROGRESS)
+        .withSetting(SETTING_JQL_CHECK_MESSAGE, "Must be in progess!")
+        .build()
+        .run()
+        .hasTrimmedFlatOutput(
+            "refs/heads/master e2bc4ed003 -> af35d5c1a4   2 Tomas <my@email.com> >>> AB-2 fixing stuff  - JQL: key = \"AB-2\" AND (status = \"In Progress\")   Must be in progess!")
+        .wasRejected();
+  }
+
+  @Test
+  public void testThatJQLTimeoutCanReject() throws Exception {
+    RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withChangeSet(changeSetBuilder().withId("1").withMessage("fixing stuff").build())
+            .withSetting(SETTING_JQL_CHECK, TRUE)
+            .withSetting(SETTING_JQL_CHECK_QUERY, JQL_STATUS_IN_PROGRESS)
+            .withSetting(SETTING_JQL_TIMEOUT, "1")
+            .build();
+    setJiraClient(slowJiraClient());
+    refChangeBuilder
+        .run()
+        .hasTrimmedFlatOutput(
+            "refs/heads/master e2bc4ed003 -> af35d5c1a4   1 Tomas <my@email.com> >>> fixing stuff  - JQL: status = \"In Progress\"")
+        .wasRejected();
+  }
+
+  @Test
+  public void testThatJQLTimeoutCanAccept() throws Exception {
+    RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withChangeSet(changeSetBuilder().withId("1").withMessage("fixing stuff").build())
+            .withSetting(SETTING_JQL_CHECK, TRUE)
+            .withSetting(SETTING_JQL_CHECK_QUERY, JQL_STATUS_IN_PROGRESS)
+            .withSetting(SETTING_JQL_TIMEOUT, "1")
+            .withSetting(SETTING_JQL_TIMEOUT_ACCEPT, TRUE)
+            .build();
+    setJiraClient(slowJiraClient());
+    refChangeBuilder.run().hasTrimmedFlatOutput("").wasAccepted();
+  }
+
+  private JiraClient slowJiraClient() {
+    return new JiraClient() {
+      @Override
+      protected String invokeJira(
+          ApplicationLinkService applicationLinkService, String jqlCheckQuery) {
+        try {
+          Thread.sleep(10000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return "{\"total\": 1}";
+      }
+    };
+  }
+
+  @Test
+  public void testThatJqlResultsAreCached() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    JiraClient jiraClient =
+        new JiraClient() {
+          @Override
+          protected String invokeJira(
+              ApplicationLinkService applicationLinkService, String jqlCheckQuery) {
+            invocations.incrementAndGet();
+            if (jqlCheckQuery.equals("key = SB-1")) {
+              return "{\"issues\": [{\"key\": \"SB-1\"}]}";
+            }
+            return "{\"issues\": []}";
+          }
+        };
+
+    assertEquals(1, jiraClient.getNumberOfJqlResults(null, "key = SB-1"));
+    assertEquals(1, jiraClient.getNumberOfJqlResults(null, "key = SB-1"));
+    assertEquals(0, jiraClient.getNumberOfJqlResults(null, "key = SB-2"));
+    assertEquals(0, jiraClient.getNumberOfJqlResults(null, "key = SB-2"));
+
+    assertEquals(2, invocations.get());
+    assertEquals(2, jiraClient.getCacheHits());
+    assertEquals(2, jiraClient.getCacheMisses());
+    assertEquals(2L, jiraClient.getCacheStats().get("hits"));
+    assertEquals(1L, jiraClient.getCacheStats().get("cachedWithResults"));
+  }
+
+  @Test
+  public void testThatJiraIsNotQueriedWhenFailing() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    JiraClient jiraClient =
+        new JiraClient() {
+          @Override
+          protected String invokeJira(
+              ApplicationLinkService applicationLinkService, String jqlCheckQuery) {
+            invocations.incrementAndGet();
+            throw new RuntimeException("JIRA is down");
+          }
+        };
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(0, jiraClient.getNumberOfJqlResults(null, "key = SB-" + i));
+    }
+    assertEquals(OPEN, jiraClient.getCircuitBreakerState());
+    try {
+      jiraClient.getNumberOfJqlResults(null, "key = SB-6");
+      fail("JIRA should not be queried");
+    } catch (JiraUnavailableException e) {
+      assertEquals(5, invocations.get());
+    }
+  }
+
+  @Test
+  public void testThatMissingIssuesDoesNotStopQueryingJira() throws Exception {
+    final Response badRequest = mock(Response.class);
+    when(badRequest.getStatusCode()).thenReturn(400);
+    final AtomicInteger invocations = new AtomicInteger();
+    JiraClient jiraClient =
+        new JiraClient() {
+          @Override
+          protected String invokeJira(
+              ApplicationLinkService applicationLinkService, String jqlCheckQuery)
+              throws ResponseException {
+            invocations.incrementAndGet();
+            throw new ResponseStatusException("Issue does not exist", badRequest);
+          }
+        };
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(0, jiraClient.getNumberOfJqlResults(null, "key = SB-" + i));
+    }
+    assertEquals(CLOSED, jiraClient.getCircuitBreakerState());
+    assertEquals(10, invocations.get());
+  }
+
+  @Test
+  public void testThatCircuitBreakerThresholdsCanBeChanged() throws Exception {
+    JiraClient jiraClient =
+        new JiraClient() {
+          @Override
+          protected String invokeJira(
+              ApplicationLinkService applicationLinkService, String jqlCheckQuery) {
+            throw new RuntimeException("JIRA is down");
+          }
+        };
+    jiraClient.setCircuitBreaker(
+        new JiraCircuitBreaker(2, SECONDS.toNanos(10), MINUTES.toNanos(1)));
+
+    assertEquals(0, jiraClient.getNumberOfJqlResults(null, "key = SB-1"));
+    assertEquals("CLOSED", jiraClient.getCacheStats().get("circuitBreaker"));
+    assertEquals(0, jiraClient.getNumberOfJqlResults(null, "key = SB-2"));
+    assertEquals("OPEN", jiraClient.getCacheStats().get("circuitBreaker"));
+  }
 }
@@ -15,6 +15,7 @@ import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
 import java.io.IOException;
 import org.junit.Test;
 import se.bjurr.sbcc.data.SbccPerson;
+import se.bjurr.sbcc.util.RefChangeBuilder;
 
 public class MatchingNameTest {
   @Test
@@ -323,4 +324,28 @@ public class MatchingNameTest {
             "refs/heads/master e2bc4ed003 -> af35d5c1a4   1 Tomas Author <author@one.site> >>> SB-5678 fixing stuff  - Commit: 'Tomas Author'   Name not available in Bitbucket")
         .wasRejected();
   }
+
+  @Test
+  public void testVerifiedCommitIsNotCheckedAgain() throws IOException {
+    RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withChangeSet(
+                changeSetBuilder()
+                    .withId("1")
+                    .withAuthor(new SbccPerson("Tomas Author", "author@one.site"))
+                    .withMessage(COMMIT_MESSAGE_JIRA)
+                    .build())
+            .withBitbucketDisplayName("Tomas Author")
+            .withSetting(SETTING_REQUIRE_MATCHING_AUTHOR_NAME, TRUE)
+            .build()
+            .run()
+            .hasTrimmedFlatOutput("")
+            .wasAccepted();
+
+    refChangeBuilder
+        .withBitbucketDisplayName("Someone Else")
+        .run()
+        .hasTrimmedFlatOutput("")
+        .wasAccepted();
+  }
 }
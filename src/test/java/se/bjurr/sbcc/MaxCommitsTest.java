@@ -0,0 +1,112 @@
+package se.bjurr.sbcc;
+
+import static com.atlassian.bitbucket.repository.RefChangeType.UPDATE;
+import static java.lang.Boolean.TRUE;
+import static org.junit.Assert.assertTrue;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_JIRA;
+import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_EXCLUDE_MERGE_COMMITS;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_MAX_COMMITS;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_MAX_COMMITS_SAMPLE;
+import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
+
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.bjurr.sbcc.util.LocalGitRepository;
+import se.bjurr.sbcc.util.RefChangeBuilder;
+
+public class MaxCommitsTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testThatPushWithTooManyCommitsIsRejected() throws IOException {
+    final RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withSetting(SETTING_MAX_COMMITS, "2")
+            .withGroupAcceptingAtLeastOneJira()
+            .withChangeSet(changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withChangeSet(changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withChangeSet(changeSetBuilder().withId("3").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .build()
+            .run()
+            .wasRejected();
+
+    final String output = refChangeBuilder.getOutputAll();
+    assertTrue(output, output.contains("More than 2 new commits, push fewer commits at a time."));
+  }
+
+  @Test
+  public void testThatExcludedMergeCommitsDoNotHideTooManyCommits() throws IOException {
+    final LocalGitRepository gitRepository =
+        new LocalGitRepository(this.temporaryFolder.newFolder());
+    final String from = gitRepository.commit("master", "initial", 1);
+    final String feature = gitRepository.commitWithParents("feature", from);
+    final String fix = gitRepository.commitWithParents("fix", feature);
+    final String change = gitRepository.commitWithParents("change", from);
+    final String other = gitRepository.commitWithParents("other", change);
+    final String merge = gitRepository.commitWithParents("merge", other, fix);
+
+    final RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withGitRepository(gitRepository)
+            .withType(UPDATE)
+            .withFromHash(from)
+            .withToHash(merge)
+            .withSetting(SETTING_MAX_COMMITS, "3")
+            .withSetting(SETTING_EXCLUDE_MERGE_COMMITS, TRUE)
+            .build()
+            .run()
+            .wasRejected();
+
+    final String output = refChangeBuilder.getOutputAll();
+    assertTrue(output, output.contains("More than 3 new commits, push fewer commits at a time."));
+  }
+
+  @Test
+  public void testThatPushWithMaxCommitsIsAccepted() throws IOException {
+    refChangeBuilder()
+        .withSetting(SETTING_MAX_COMMITS, "2")
+        .withGroupAcceptingAtLeastOneJira()
+        .withChangeSet(changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).build())
+        .withChangeSet(changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_JIRA).build())
+        .build()
+        .run()
+        .hasNoOutput()
+        .wasAccepted();
+  }
+
+  @Test
+  public void testThatAnnotatedTagsAreNotCounted() throws IOException {
+    refChangeBuilder()
+        .withSetting(SETTING_MAX_COMMITS, "2")
+        .withGroupAcceptingAtLeastOneJira()
+        .withChangeSet(
+            changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).withTag(true).build())
+        .withChangeSet(changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_JIRA).build())
+        .withChangeSet(changeSetBuilder().withId("3").withMessage(COMMIT_MESSAGE_JIRA).build())
+        .build()
+        .run()
+        .hasNoOutput()
+        .wasAccepted();
+  }
+
+  @Test
+  public void testThatPushWithTooManyCommitsIsSampled() throws IOException {
+    final RefChangeBuilder refChangeBuilder =
+        refChangeBuilder()
+            .withSetting(SETTING_MAX_COMMITS, "2")
+            .withSetting(SETTING_MAX_COMMITS_SAMPLE, TRUE)
+            .withGroupAcceptingAtLeastOneJira()
+            .withChangeSet(changeSetBuilder().withId("1").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withChangeSet(changeSetBuilder().withId("2").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .withChangeSet(changeSetBuilder().withId("3").withMessage(COMMIT_MESSAGE_JIRA).build())
+            .build()
+            .run()
+            .wasAccepted();
+
+    final String output = refChangeBuilder.getOutputAll();
+    assertTrue(output, output.contains("only the newest and a sample of the others were checked"));
+  }
+}
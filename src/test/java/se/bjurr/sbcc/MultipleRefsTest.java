@@ -0,0 +1,59 @@
+package se.bjurr.sbcc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_JIRA;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_NO_ISSUE;
+import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_PARALLEL_COMMITS;
+import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
+
+import java.io.IOException;
+import org.junit.Test;
+import se.bjurr.sbcc.util.RefChangeBuilder;
+
+public class MultipleRefsTest {
+
+  private RefChangeBuilder pushToTwoRefs() throws IOException {
+    return pushToTwoRefs("");
+  }
+
+  private RefChangeBuilder pushToTwoRefs(final String parallelCommits) throws IOException {
+    final RefChangeBuilder refChangeBuilder =
+        refChangeBuilder() //
+            .withSetting(SETTING_PARALLEL_COMMITS, parallelCommits) //
+            .withOtherRefId("refs/heads/feature") //
+            .withGroupAcceptingAtLeastOneJira();
+    for (int i = 0; i < 100; i++) {
+      refChangeBuilder.withChangeSet(
+          changeSetBuilder()
+              .withId(Integer.toString(i))
+              .withMessage(i % 2 == 0 ? COMMIT_MESSAGE_NO_ISSUE : COMMIT_MESSAGE_JIRA)
+              .build());
+    }
+    return refChangeBuilder.build().run().wasRejected();
+  }
+
+  @Test
+  public void testThatResultsOfAllRefsAreReportedInPushOrder() throws IOException {
+    final String output = pushToTwoRefs().getOutputAll();
+
+    final int master = output.indexOf("refs/heads/master");
+    final int feature = output.indexOf("refs/heads/feature");
+    assertTrue(output, master >= 0 && feature > master);
+    assertTrue(output, output.substring(master, feature).contains("\n98 Tomas <my@email.com>"));
+    assertTrue(output, output.substring(feature).contains("\n98 Tomas <my@email.com>"));
+    assertFalse(output, output.contains("\n99 Tomas <my@email.com>"));
+  }
+
+  @Test
+  public void testThatOutputIsTheSameEveryTime() throws IOException {
+    assertEquals(pushToTwoRefs().getOutputAll(), pushToTwoRefs().getOutputAll());
+  }
+
+  @Test
+  public void testThatRefsCheckedInParallelAreReportedAsWhenCheckedOneByOne() throws IOException {
+    assertEquals(pushToTwoRefs().getOutputAll(), pushToTwoRefs("10").getOutputAll());
+  }
+}
@@ -0,0 +1,40 @@
+package se.bjurr.sbcc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_JIRA;
+import static se.bjurr.sbcc.SBCCTestConstants.COMMIT_MESSAGE_NO_ISSUE;
+import static se.bjurr.sbcc.data.SbccChangeSetBuilder.changeSetBuilder;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_PARALLEL_COMMITS;
+import static se.bjurr.sbcc.util.RefChangeBuilder.refChangeBuilder;
+
+import java.io.IOException;
+import org.junit.Test;
+import se.bjurr.sbcc.util.RefChangeBuilder;
+
+public class ParallelCommitsTest {
+
+  private String pushCommits(final String parallelCommits) throws IOException {
+    final RefChangeBuilder refChangeBuilder =
+        refChangeBuilder() //
+            .withSetting(SETTING_PARALLEL_COMMITS, parallelCommits) //
+            .withGroupAcceptingAtLeastOneJira();
+    for (int i = 0; i < 200; i++) {
+      refChangeBuilder.withChangeSet(
+          changeSetBuilder()
+              .withId(Integer.toString(i))
+              .withMessage(i % 3 == 0 ? COMMIT_MESSAGE_NO_ISSUE : COMMIT_MESSAGE_JIRA)
+              .build());
+    }
+    return refChangeBuilder.build().run().wasRejected().getOutputAll();
+  }
+
+  @Test
+  public void testThatCommitsCheckedInParallelAreReportedAsWhenCheckedOneByOne()
+      throws IOException {
+    final String parallel = pushCommits("10");
+
+    assertTrue(parallel, parallel.contains("\n198 Tomas <my@email.com>"));
+    assertEquals(pushCommits(""), parallel);
+  }
+}
@@ -0,0 +1,62 @@
+package se.bjurr.sbcc;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_BRANCHES;
+
+import com.atlassian.bitbucket.auth.AuthenticationContext;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.event.api.EventPublisher;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import se.bjurr.sbcc.settings.SbccSettings;
+import se.bjurr.sbcc.settings.ValidationException;
+
+public class SbccSettingsCacheTest {
+  private final SbccSettingsCache sut = new SbccSettingsCache(mock(EventPublisher.class));
+  private final AuthenticationContext authenticationContext = mock(AuthenticationContext.class);
+  private Repository repository;
+  private Settings settings;
+
+  @Before
+  public void before() {
+    this.repository = mock(Repository.class);
+    when(this.repository.getId()).thenReturn(1);
+    this.settings = mock(Settings.class);
+    when(this.settings.getString(anyString())).thenReturn(null);
+    withBranches("master");
+  }
+
+  @Test
+  public void testThatUnchangedSettingsAreParsedOnce() throws ValidationException {
+    final SbccSettings first = getSettings();
+    assertSame(first, getSettings());
+  }
+
+  @Test
+  public void testThatSettingsChangedOnAnotherNodeAreParsedAgain() throws ValidationException {
+    assertEquals("master", getSettings().getBranches().get());
+
+    // No event on this node, only the stored settings changed
+    withBranches("develop");
+
+    assertEquals("develop", getSettings().getBranches().get());
+  }
+
+  private SbccSettings getSettings() throws ValidationException {
+    return this.sut.getSettings(this.repository, this.settings, this.authenticationContext);
+  }
+
+  private void withBranches(final String branches) {
+    when(this.settings.getString(SETTING_BRANCHES)).thenReturn(branches);
+    final Map<String, Object> rawSettings = newHashMap();
+    rawSettings.put(SETTING_BRANCHES, branches);
+    when(this.settings.asMap()).thenReturn(rawSettings);
+  }
+}
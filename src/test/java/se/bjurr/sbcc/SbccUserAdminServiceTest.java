@@ -0,0 +1,177 @@
+package se.bjurr.sbcc;
+
+import static com.atlassian.bitbucket.permission.Permission.ADMIN;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.atlassian.bitbucket.event.user.UserCleanupEvent;
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.EscalatedSecurityContext;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.user.UserService;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequest;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.atlassian.event.api.EventPublisher;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import se.bjurr.sbcc.util.LocalUserCacheBackend;
+
+public class SbccUserAdminServiceTest {
+  private UserService userService;
+  private SecurityService securityService;
+  private ApplicationUser tomas;
+  private final LocalUserCacheBackend userCacheBackend = new LocalUserCacheBackend();
+  private SbccUserAdminService sut;
+
+  @Before
+  public void before() {
+    this.tomas = user(1, "tomas", "Tomas Bjerre", "tomas@example.com");
+    final ApplicationUser other = user(2, "other", "Other User", "other@example.com");
+
+    final PageRequest nextPageRequest = mock(PageRequest.class);
+    this.userService = mock(UserService.class);
+    final Page<ApplicationUser> first = page(false, nextPageRequest, this.tomas);
+    final Page<ApplicationUser> last = page(true, null, other);
+    final Page<ApplicationUser> empty = page(true, null);
+    when(this.userService.findUsersByName(isNull(), any(PageRequest.class))).thenReturn(first);
+    when(this.userService.findUsersByName(isNull(), eq(nextPageRequest))).thenReturn(last);
+    when(this.userService.findUsersByName(anyString(), any(PageRequest.class))).thenReturn(empty);
+
+    final EscalatedSecurityContext escalatedSecurityContext = mock(EscalatedSecurityContext.class);
+    when(escalatedSecurityContext.call(any(UncheckedOperation.class)))
+        .thenAnswer(
+            new Answer<Object>() {
+              @Override
+              public Object answer(final InvocationOnMock invocation) {
+                return invocation.<UncheckedOperation<?>>getArgument(0).perform();
+              }
+            });
+    this.securityService = mock(SecurityService.class);
+    when(this.securityService.withPermission(ADMIN, "Indexing users"))
+        .thenReturn(escalatedSecurityContext);
+
+    this.sut = newSbccUserAdminService();
+  }
+
+  @Test
+  public void testThatIndexedUsersAreFoundWithoutQueryingTheDirectory() {
+    this.sut.refreshUserIndex();
+    assertTrue(this.sut.emailExists("Tomas@Example.com"));
+    assertTrue(this.sut.emailExists("other@example.com"));
+    assertTrue(this.sut.displayNameExists("tomas bjerre"));
+    assertTrue(this.sut.slugExists("other"));
+
+    verify(this.userService, times(2)).findUsersByName(isNull(), any(PageRequest.class));
+    verify(this.userService, never()).findUsersByName(anyString(), any(PageRequest.class));
+    verify(this.userService, never()).getUserBySlug(anyString());
+  }
+
+  @Test
+  public void testThatUsersNotIndexedAreLookedUpInTheDirectory() {
+    this.sut.refreshUserIndex();
+    assertFalse(this.sut.emailExists("new@example.com"));
+    assertFalse(this.sut.slugExists("new"));
+
+    verify(this.userService).findUsersByName(eq("new@example.com"), any(PageRequest.class));
+    verify(this.userService).getUserBySlug("new");
+  }
+
+  @Test
+  public void testThatDeletedUsersAreRemovedFromTheIndex() {
+    this.sut.refreshUserIndex();
+    final UserCleanupEvent event = mock(UserCleanupEvent.class);
+    when(event.getDeletedUser()).thenReturn(this.tomas);
+    this.sut.onUserCleanup(event);
+
+    assertFalse(this.sut.emailExists("tomas@example.com"));
+    assertTrue(this.sut.emailExists("other@example.com"));
+  }
+
+  @Test
+  public void testThatAuthorsAreResolvedWithOneQueryPerDistinctUser() {
+    final Page<ApplicationUser> found = page(true, null, this.tomas);
+    when(this.userService.findUsersByName(eq("tomas bjerre"), any(PageRequest.class)))
+        .thenReturn(found);
+    when(this.userService.getUserBySlug("tomas")).thenReturn(this.tomas);
+
+    this.sut.resolve(
+        Arrays.asList("tomas@example.com", "Tomas@Example.com", "new@example.com"),
+        Arrays.asList("Tomas Bjerre", "tomas bjerre"),
+        Arrays.asList("tomas", "tomas"));
+    assertTrue(this.sut.emailExists("TOMAS@example.com"));
+    assertFalse(this.sut.emailExists("new@example.com"));
+    assertTrue(this.sut.displayNameExists("Tomas Bjerre"));
+    assertTrue(this.sut.slugExists("tomas"));
+
+    verify(this.userService).findUsersByName(eq("tomas bjerre"), any(PageRequest.class));
+    verify(this.userService).findUsersByName(eq("new@example.com"), any(PageRequest.class));
+    verify(this.userService, times(2)).findUsersByName(anyString(), any(PageRequest.class));
+    verify(this.userService).getUserBySlug("tomas");
+  }
+
+  @Test
+  public void testThatAnswersAreSharedWithOtherNodes() {
+    final SbccUserAdminService otherNode = newSbccUserAdminService();
+    assertFalse(this.sut.emailExists("new@example.com"));
+    assertFalse(otherNode.emailExists("new@example.com"));
+
+    verify(this.userService).findUsersByName(eq("new@example.com"), any(PageRequest.class));
+  }
+
+  @Test
+  public void testThatSharedAnswersAreRemovedWhenUsersChange() {
+    final SbccUserAdminService otherNode = newSbccUserAdminService();
+    assertFalse(this.sut.emailExists("new@example.com"));
+    final UserCleanupEvent event = mock(UserCleanupEvent.class);
+    when(event.getDeletedUser()).thenReturn(this.tomas);
+    this.sut.onUserCleanup(event);
+    assertFalse(otherNode.emailExists("new@example.com"));
+
+    verify(this.userService, times(2))
+        .findUsersByName(eq("new@example.com"), any(PageRequest.class));
+  }
+
+  private SbccUserAdminService newSbccUserAdminService() {
+    return new SbccUserAdminService(
+        this.userService,
+        this.securityService,
+        mock(EventPublisher.class),
+        mock(ApplicationPropertiesService.class),
+        mock(SbccExecutors.class),
+        this.userCacheBackend);
+  }
+
+  private static ApplicationUser user(
+      final int id, final String slug, final String displayName, final String email) {
+    final ApplicationUser user = mock(ApplicationUser.class);
+    when(user.getId()).thenReturn(id);
+    when(user.getSlug()).thenReturn(slug);
+    when(user.getDisplayName()).thenReturn(displayName);
+    when(user.getEmailAddress()).thenReturn(email);
+    return user;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Page<ApplicationUser> page(
+      final boolean isLastPage, final PageRequest nextPageRequest, final ApplicationUser... users) {
+    final Page<ApplicationUser> page = mock(Page.class);
+    when(page.getValues()).thenReturn(Arrays.asList(users));
+    when(page.getIsLastPage()).thenReturn(isLastPage);
+    when(page.getNextPageRequest()).thenReturn(nextPageRequest);
+    return page;
+  }
+}
@@ -68,4 +68,31 @@ public class VariablesTest {
             "refs/heads/master e2bc4ed003 -> af35d5c1a4   1 Tomas <my@email.com> >>> SB-5678 fixing stuff  - Bitbucket: 'Bitbucket Name' != Commit: 'Tomas'   Bitbucket says your name is Bitbucket Name, set it using: git config --global user.name \"Bitbucket Name\"")
         .wasRejected();
   }
+
+  @Test
+  public void testAuthorNameWithSpecialCharactersCanBeUsedInNameRejectionMessage()
+      throws IOException {
+    refChangeBuilder()
+        .withChangeSet(
+            changeSetBuilder()
+                .withId("1")
+                .withAuthor(new SbccPerson("Tom$1 \\o/", "my@email.com"))
+                .withMessage(COMMIT_MESSAGE_JIRA)
+                .build())
+        .withBitbucketEmail("bitbucket@mail")
+        .withBitbucketDisplayName("Bitbucket Name")
+        .withSetting(SETTING_REQUIRE_MATCHING_AUTHOR_NAME, TRUE)
+        .withSetting(
+            SETTING_REQUIRE_MATCHING_AUTHOR_NAME_MESSAGE,
+            "You are ${"
+                + SbccRenderer.SBCCVariable.AUTHOR_NAME
+                + "}, not ${"
+                + SbccRenderer.SBCCVariable.BITBUCKET_NAME
+                + "}. ${UNKNOWN} is kept.")
+        .build()
+        .run()
+        .hasTrimmedFlatOutput(
+            "refs/heads/master e2bc4ed003 -> af35d5c1a4   1 Tom$1 \\o/ <my@email.com> >>> SB-5678 fixing stuff  - Bitbucket: 'Bitbucket Name' != Commit: 'Tom$1 \\o/'   You are Tom$1 \\o/, not Bitbucket Name. ${UNKNOWN} is kept.")
+        .wasRejected();
+  }
 }
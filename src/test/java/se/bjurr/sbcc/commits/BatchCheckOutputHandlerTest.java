@@ -0,0 +1,29 @@
+package se.bjurr.sbcc.commits;
+
+import static com.google.common.io.Resources.getResource;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class BatchCheckOutputHandlerTest {
+
+  /** batchCheckOutput.txt is the output of cat-file --batch-check, given blobs and a missing id. */
+  @Test
+  public void testThatSizesAreReadAndMissingObjectsLeftOut() throws IOException {
+    final BatchCheckOutputHandler handler = new BatchCheckOutputHandler();
+    try (InputStream output = getResource("batchCheckOutput.txt").openStream()) {
+      handler.process(output);
+    }
+
+    final Map<String, Long> expected = new HashMap<>();
+    expected.put("ce013625030ba8dba906f756967f9e9ca394464a", 6L);
+    expected.put("6101cd9d92857ed7ee8b3590fb2344feeac0cb81", 23L);
+    expected.put("012cf908ea6ca1b812034ec3ac928b3fb12c2d17", 19L);
+    expected.put("8be8316c70848caa99b9b3086c64976e82d1c17d", 3L);
+    assertEquals(expected, handler.getOutput());
+  }
+}
@@ -0,0 +1,167 @@
+package se.bjurr.sbcc.commits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static se.bjurr.sbcc.settings.SbccExcludeCommits.BRANCHES_AND_TAGS;
+import static se.bjurr.sbcc.settings.SbccExcludeCommits.FROM_HASH;
+
+import com.atlassian.bitbucket.repository.MinimalRef;
+import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.RefChangeType;
+import com.atlassian.bitbucket.repository.Repository;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.bjurr.sbcc.data.SbccChangeSet;
+import se.bjurr.sbcc.settings.SbccSettings;
+import se.bjurr.sbcc.util.LocalGitRepository;
+
+/** Runs the git commands, built by the service, in a real repository. */
+public class ChangeSetsServiceTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final ExecutorService gitExecutor = Executors.newCachedThreadPool();
+
+  private LocalGitRepository gitRepository;
+  private Repository repository;
+  private ChangeSetsService sut;
+  private SbccSettings settings;
+
+  @Before
+  public void before() throws IOException {
+    this.gitRepository = new LocalGitRepository(this.temporaryFolder.newFolder());
+    this.repository = this.gitRepository.getRepository();
+    this.sut = this.gitRepository.getChangeSetsService();
+
+    this.settings = mock(SbccSettings.class);
+    when(this.settings.getExcludeCommits()).thenReturn(BRANCHES_AND_TAGS);
+    when(this.settings.shouldExcludeTagCommits()).thenReturn(true);
+  }
+
+  @After
+  public void after() {
+    this.gitExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testThatAllCommitsOfALargeUpdateAreWalked() throws Exception {
+    final String from = this.gitRepository.commit("master", "initial", 1);
+    final String to = this.gitRepository.commit("refs/heads/incoming", "change", 1500);
+    this.gitRepository.git(null, "update-ref", "-d", "refs/heads/incoming");
+
+    final List<String> walked = walk(refChange("refs/heads/master", from, to));
+
+    assertEquals(1500, walked.size());
+    assertEquals(to, walked.get(0));
+    final List<String> revList = this.gitRepository.getLastCommand();
+    assertEquals("rev-list", revList.get(0));
+    for (final String argument : revList) {
+      assertFalse(revList.toString(), argument.startsWith("--max-count"));
+      assertFalse(revList.toString(), argument.equals("--parents"));
+    }
+  }
+
+  @Test
+  public void testThatFastForwardToCommitsOnAnotherBranchIsNotWalked() throws Exception {
+    final String from = this.gitRepository.commit("master", "initial", 1);
+    final String to = this.gitRepository.commit("refs/heads/feature", "feature", 2);
+
+    final List<String> walked = walk(refChange("refs/heads/master", from, to));
+
+    assertEquals(new ArrayList<String>(), walked);
+    final List<String> revList = this.gitRepository.getLastCommand();
+    assertEquals(
+        Arrays.asList("--not", "--branches", "--tags"),
+        revList.subList(revList.indexOf("--not"), revList.size()));
+  }
+
+  @Test
+  public void testThatUpdateIsWalkedFromItsPreviousCommitOnly() throws Exception {
+    when(this.settings.getExcludeCommits()).thenReturn(FROM_HASH);
+    final String from = this.gitRepository.commit("master", "initial", 1);
+    final String to = this.gitRepository.commit("refs/heads/feature", "feature", 2);
+
+    final List<String> walked = walk(refChange("refs/heads/master", from, to));
+
+    assertEquals(2, walked.size());
+    final List<String> revList = this.gitRepository.getLastCommand();
+    assertEquals(
+        Arrays.asList(to, "--not", from),
+        revList.subList(revList.indexOf("--not") - 1, revList.size()));
+  }
+
+  @Test
+  public void testThatFilesAreComparedInBytesAndShownRoundedUp() throws Exception {
+    when(this.settings.getCommitSizeKb()).thenReturn(1);
+    this.gitRepository.commit("master", "initial", 1);
+    final String commit =
+        this.gitRepository.commitFiles("at-limit.txt", 1024, "above-limit.txt", 1025);
+
+    final Map<String, Map<String, Long>> largeFiles =
+        this.sut.findLargeFiles(this.settings, this.repository, Arrays.asList(commit));
+
+    final Map<String, Long> expected = new TreeMap<>();
+    expected.put("above-limit.txt", 2L);
+    assertEquals(expected, largeFiles.get(commit));
+  }
+
+  @Test
+  public void testThatFilesAboveMaxCheckedSizeInBytesAreNotChecked() throws Exception {
+    when(this.settings.getCommitDiffRegexp()).thenReturn(Optional.of("x"));
+    when(this.settings.hasCommitDiffMaxFileSize()).thenReturn(true);
+    when(this.settings.getCommitDiffMaxFileSizeKb()).thenReturn(1);
+    this.gitRepository.commit("master", "initial", 1);
+    final String commit =
+        this.gitRepository.commitFiles(
+            "at-limit.txt", 1024, "above-limit.txt", 1025, "\"\\303\\244bove limit.txt\"", 1025);
+
+    final Map<String, String> rejectedContent =
+        this.sut.findRejectedContent(this.settings, this.repository, Arrays.asList(commit));
+
+    assertEquals(
+        "  at-limit.txt: " + Strings.repeat("x", 200) + "...", rejectedContent.get(commit));
+  }
+
+  private List<String> walk(final RefChange refChange) throws IOException, ExecutionException {
+    final List<String> walked = new ArrayList<>();
+    this.sut.streamNewChangeSets(
+        this.settings,
+        this.repository,
+        Arrays.asList(refChange),
+        this.gitExecutor,
+        new ChangeSetConsumer() {
+          @Override
+          public boolean accept(final String refId, final SbccChangeSet sbccChangeSet) {
+            walked.add(sbccChangeSet.getId());
+            return true;
+          }
+        });
+    return walked;
+  }
+
+  private static RefChange refChange(final String refId, final String from, final String to) {
+    final MinimalRef ref = mock(MinimalRef.class);
+    when(ref.getId()).thenReturn(refId);
+    final RefChange refChange = mock(RefChange.class);
+    when(refChange.getRef()).thenReturn(ref);
+    when(refChange.getType()).thenReturn(RefChangeType.UPDATE);
+    when(refChange.getFromHash()).thenReturn(from);
+    when(refChange.getToHash()).thenReturn(to);
+    return refChange;
+  }
+}
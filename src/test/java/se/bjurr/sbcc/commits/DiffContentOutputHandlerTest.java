@@ -0,0 +1,65 @@
+package se.bjurr.sbcc.commits;
+
+import static com.google.common.base.Strings.repeat;
+import static com.google.common.io.Resources.getResource;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * diffContentOutput.txt is the output of diff-tree --stdin -p -r --root --no-renames --no-prefix
+ * --unified=0, given all commits of a repository with a merge, a binary file, quoted paths and a
+ * commit adding 12 matching lines.
+ */
+public class DiffContentOutputHandlerTest {
+
+  private static Map<String, String> findRejectedContent(final String regexp) throws IOException {
+    final DiffContentOutputHandler handler = new DiffContentOutputHandler(regexp);
+    try (InputStream output = getResource("diffContentOutput.txt").openStream()) {
+      handler.process(output);
+    }
+    return handler.getOutput();
+  }
+
+  @Test
+  public void testThatAddedLinesAreMatchedButNotBinaryFilesOrMerges() throws IOException {
+    final Map<String, String> rejectedContent = findRejectedContent("password");
+
+    final Map<String, String> expected = new HashMap<>();
+    expected.put(
+        "656fca7d5694bcbf34b74b930e03cbd399b760ca",
+        "  many.txt: password="
+            + repeat("x", 191)
+            + "...\n"
+            + "  many.txt: password=2\n"
+            + "  many.txt: password=3\n"
+            + "  many.txt: password=4\n"
+            + "  many.txt: password=5\n"
+            + "  many.txt: password=6\n"
+            + "  many.txt: password=7\n"
+            + "  many.txt: password=8\n"
+            + "  many.txt: password=9\n"
+            + "  many.txt: password=10");
+    expected.put("a96b7d4d64965a073a78fd70dd3b196b07897275", "  a.txt: password=changed");
+    expected.put("534a571a26c0d2f2dae88505364f362affa9080c", "  with space.txt: password=secret");
+    assertEquals(expected, rejectedContent);
+  }
+
+  @Test
+  public void testThatRemovedLinesAreNotMatched() throws IOException {
+    final Map<String, String> expected = new HashMap<>();
+    expected.put("534a571a26c0d2f2dae88505364f362affa9080c", "  b.txt: remove me");
+    assertEquals(expected, findRejectedContent("remove me"));
+  }
+
+  @Test
+  public void testThatQuotedPathsAreDecoded() throws IOException {
+    final Map<String, String> expected = new HashMap<>();
+    expected.put("534a571a26c0d2f2dae88505364f362affa9080c", "  ä.txt: ä");
+    assertEquals(expected, findRejectedContent("ä"));
+  }
+}
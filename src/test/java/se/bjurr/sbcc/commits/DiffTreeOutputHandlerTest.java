@@ -0,0 +1,75 @@
+package se.bjurr.sbcc.commits;
+
+import static com.google.common.io.Resources.getResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * diffTreeOutput.txt is the output of diff-tree --stdin -r --root --no-renames --no-abbrev, given
+ * all commits of a repository with a merge, a rename, a binary file, a submodule and quoted paths.
+ */
+public class DiffTreeOutputHandlerTest {
+  private Map<String, Map<String, String>> blobsByCommit;
+
+  @Before
+  public void before() throws IOException {
+    final DiffTreeOutputHandler handler = new DiffTreeOutputHandler();
+    try (InputStream output = getResource("diffTreeOutput.txt").openStream()) {
+      handler.process(output);
+    }
+    this.blobsByCommit = handler.getOutput();
+  }
+
+  @Test
+  public void testThatCommitsAreReadInOrder() {
+    assertEquals(
+        Arrays.asList(
+            "656fca7d5694bcbf34b74b930e03cbd399b760ca",
+            "e52289f41c11e051bfd30ee6a1bb9a93568581a7",
+            "a96b7d4d64965a073a78fd70dd3b196b07897275",
+            "534a571a26c0d2f2dae88505364f362affa9080c"),
+        Arrays.asList(this.blobsByCommit.keySet().toArray()));
+  }
+
+  @Test
+  public void testThatMergeCommitsAreNotDiffed() {
+    assertFalse(this.blobsByCommit.containsKey("6df81fff4767fefe5a72a77500b02928d82096bb"));
+  }
+
+  @Test
+  public void testThatAddedFilesAreReadWithQuotedPathsAndWithoutSubmodules() {
+    final Map<String, String> expected = new TreeMap<>();
+    expected.put("a.txt", "ce013625030ba8dba906f756967f9e9ca394464a");
+    expected.put("b.txt", "10b961ad963604811a8842ba7da40feb9c077580");
+    expected.put("bin.dat", "012cf908ea6ca1b812034ec3ac928b3fb12c2d17");
+    expected.put("c.txt", "43372edea46de0470388d72da4ad490183f95954");
+    expected.put("with space.txt", "1c0eaae948deedda4c1e7524970b856742bd39cd");
+    expected.put("ä.txt", "8be8316c70848caa99b9b3086c64976e82d1c17d");
+    assertEquals(expected, this.blobsByCommit.get("534a571a26c0d2f2dae88505364f362affa9080c"));
+  }
+
+  @Test
+  public void testThatEscapesInQuotedPathsAreDecoded() {
+    assertEquals(
+        "tab\there \"q\" back\\slash ä.txt",
+        DiffTreeOutputHandler.unquote("\"tab\\there \\\"q\\\" back\\\\slash \\303\\244.txt\""));
+    assertEquals("\"not quoted.txt", DiffTreeOutputHandler.unquote("\"not quoted.txt"));
+  }
+
+  @Test
+  public void testThatChangedAndRenamedFilesAreReadAndDeletedAreNot() {
+    final Map<String, String> expected = new TreeMap<>();
+    expected.put("a.txt", "6101cd9d92857ed7ee8b3590fb2344feeac0cb81");
+    expected.put("bin.dat", "a903574af00b573ad9bdb2bccf8d93ed00c675de");
+    expected.put("d.txt", "43372edea46de0470388d72da4ad490183f95954");
+    assertEquals(expected, this.blobsByCommit.get("a96b7d4d64965a073a78fd70dd3b196b07897275"));
+  }
+}
@@ -0,0 +1,25 @@
+package se.bjurr.sbcc.commits;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ObjectIdsInputHandlerTest {
+
+  @Test
+  public void testThatObjectIdsAreWrittenOnePerLine() {
+    final ByteArrayOutputStream input = new ByteArrayOutputStream();
+    new ObjectIdsInputHandler(
+            Arrays.asList(
+                "656fca7d5694bcbf34b74b930e03cbd399b760ca",
+                "e52289f41c11e051bfd30ee6a1bb9a93568581a7"))
+        .process(input);
+
+    assertEquals(
+        "656fca7d5694bcbf34b74b930e03cbd399b760ca\ne52289f41c11e051bfd30ee6a1bb9a93568581a7\n",
+        new String(input.toByteArray(), UTF_8));
+  }
+}
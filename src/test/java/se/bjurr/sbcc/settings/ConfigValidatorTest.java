@@ -8,8 +8,13 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_BRANCHES;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_DIFF_EXCLUDE;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_DIFF_INCLUDE;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_DIFF_MAX_FILE_SIZE;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_EXCLUDE_COMMITS;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_GROUP_ACCEPT;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_GROUP_MATCH;
+import static se.bjurr.sbcc.settings.SbccSettings.SETTING_JQL_TIMEOUT;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_RULE_MESSAGE;
 import static se.bjurr.sbcc.settings.SbccSettings.SETTING_RULE_REGEXP;
 import static se.bjurr.sbcc.settings.SbccSettings.sscSettings;
@@ -73,6 +78,43 @@ public class ConfigValidatorTest {
         on(",").join(this.fieldErrors.values()));
   }
 
+  @Test
+  public void testThatDiffFileFiltersAreSplitOnCommasAndNewlines() throws ValidationException {
+    when(this.settings.getString(SETTING_DIFF_INCLUDE)).thenReturn("*.java, *.properties\n");
+    when(this.settings.getString(SETTING_DIFF_EXCLUDE)).thenReturn("generated/*\n *.min.js");
+    when(this.settings.getString(SETTING_DIFF_MAX_FILE_SIZE)).thenReturn("512");
+    this.configValidator.validate(this.settings, this.errors, new RepositoryScope(this.repository));
+    assertEquals("", on(",").join(this.fieldErrors.keySet()));
+    final SbccSettings sbccSettings = sscSettings(this.settings);
+    assertEquals("*.java,*.properties", on(",").join(sbccSettings.getCommitDiffIncludes()));
+    assertEquals("generated/*,*.min.js", on(",").join(sbccSettings.getCommitDiffExcludes()));
+    assertEquals(512, sbccSettings.getCommitDiffMaxFileSizeKb());
+  }
+
+  @Test
+  public void testThatJqlTimeoutMustBePositive() {
+    when(this.settings.getString(SETTING_JQL_TIMEOUT)).thenReturn("0");
+    this.configValidator.validate(this.settings, this.errors, new RepositoryScope(this.repository));
+    assertEquals(SETTING_JQL_TIMEOUT, on(",").join(this.fieldErrors.keySet()));
+    assertEquals("Not a positive integer!", on(",").join(this.fieldErrors.values()));
+  }
+
+  @Test
+  public void testThatDiffMaxFileSizeMustBePositive() {
+    when(this.settings.getString(SETTING_DIFF_MAX_FILE_SIZE)).thenReturn("-1");
+    this.configValidator.validate(this.settings, this.errors, new RepositoryScope(this.repository));
+    assertEquals(SETTING_DIFF_MAX_FILE_SIZE, on(",").join(this.fieldErrors.keySet()));
+    assertEquals("Not a positive integer!", on(",").join(this.fieldErrors.values()));
+  }
+
+  @Test
+  public void testThatExcludeCommitsMustBeAValidOption() {
+    when(this.settings.getString(SETTING_EXCLUDE_COMMITS)).thenReturn("NONE");
+    this.configValidator.validate(this.settings, this.errors, new RepositoryScope(this.repository));
+    assertEquals(SETTING_EXCLUDE_COMMITS, on(",").join(this.fieldErrors.keySet()));
+    assertEquals("Not a valid option!", on(",").join(this.fieldErrors.values()));
+  }
+
   @Test
   public void testThatRuleMustHaveAValidRegexp() {
     when(this.settings.getString(SETTING_GROUP_ACCEPT + "[0]"))
@@ -0,0 +1,31 @@
+package se.bjurr.sbcc.settings;
+
+import static com.google.common.base.Optional.absent;
+import static org.junit.Assert.assertEquals;
+import static se.bjurr.sbcc.settings.SbccRuleMatcher.findRequiredLiteral;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+public class SbccRuleMatcherTest {
+
+  @Test
+  public void testThatLiteralsAreFoundOutsideOfQuantifiersAndGroups() {
+    assertEquals(Optional.of("JIRA-"), findRequiredLiteral("JIRA-\\d+"));
+    assertEquals(Optional.of("INC"), findRequiredLiteral("^INC[0-9]*"));
+    assertEquals(Optional.of("fixe"), findRequiredLiteral("fixes?"));
+    assertEquals(Optional.of("ab"), findRequiredLiteral("ab+c"));
+    assertEquals(Optional.of(" issue"), findRequiredLiteral("(bug|fix) issue(s|es)?"));
+    assertEquals(Optional.of("a.b"), findRequiredLiteral("a\\.b"));
+    assertEquals(Optional.of("jira-"), findRequiredLiteral("(?i)JIRA-[0-9]+"));
+  }
+
+  @Test
+  public void testThatNoLiteralIsFoundWhenNoneIsRequired() {
+    assertEquals(absent(), findRequiredLiteral("JIRA|INC"));
+    assertEquals(absent(), findRequiredLiteral("[A-Z]+\\d+"));
+    assertEquals(absent(), findRequiredLiteral("a(?i)bc"));
+    assertEquals(absent(), findRequiredLiteral("\\QJIRA\\E"));
+    assertEquals(absent(), findRequiredLiteral("(ab)\\1"));
+  }
+}
@@ -0,0 +1,212 @@
+package se.bjurr.sbcc.util;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.CommandInputHandler;
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import com.atlassian.bitbucket.scm.ScmService;
+import com.atlassian.bitbucket.scm.git.GitScm;
+import com.atlassian.bitbucket.scm.git.command.GitCommand;
+import com.atlassian.bitbucket.scm.git.command.GitScmCommandBuilder;
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import se.bjurr.sbcc.commits.ChangeSetsService;
+
+/** A real git repository, and a {@link ChangeSetsService} that runs its commands in it. */
+public class LocalGitRepository {
+  private final File gitDir;
+  private final Repository repository;
+  private final ChangeSetsService changeSetsService;
+  /** Arguments of each git command, in the order they were built. */
+  private final List<List<String>> commands = new ArrayList<>();
+
+  public LocalGitRepository(final File gitDir) throws IOException {
+    this.gitDir = gitDir;
+    git(null, "init", "-q");
+    git(null, "config", "user.name", "Tomas");
+    git(null, "config", "user.email", "my@email.com");
+
+    this.repository = mock(Repository.class);
+    when(this.repository.getScmId()).thenReturn(GitScm.ID);
+    final ScmService scmService = mock(ScmService.class);
+    when(scmService.createBuilder(any(Repository.class)))
+        .thenAnswer(
+            new Answer<GitScmCommandBuilder>() {
+              @Override
+              public GitScmCommandBuilder answer(final InvocationOnMock invocation) {
+                return newGitScmCommandBuilder();
+              }
+            });
+    this.changeSetsService = new ChangeSetsService(null, scmService);
+  }
+
+  public Repository getRepository() {
+    return this.repository;
+  }
+
+  public ChangeSetsService getChangeSetsService() {
+    return this.changeSetsService;
+  }
+
+  /** Arguments of the last git command built by the service. */
+  public List<String> getLastCommand() {
+    return this.commands.get(this.commands.size() - 1);
+  }
+
+  /**
+   * Adds a chain of commits to the ref with fast-import, on top of master.
+   *
+   * @return the last commit.
+   */
+  public String commit(final String ref, final String message, final int count)
+      throws IOException {
+    final String from = git(null, "for-each-ref", "--format=%(objectname)", "refs/heads/master");
+    final StringBuilder stream = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      final String data = message + " " + i + "\n";
+      stream.append("commit ").append(ref.startsWith("refs/") ? ref : "refs/heads/" + ref);
+      stream.append("\ncommitter Tomas <my@email.com> ").append(i).append(" +0000\n");
+      stream.append("data ").append(data.getBytes(UTF_8).length).append("\n").append(data);
+      if (i == 0 && !from.isEmpty()) {
+        stream.append("from ").append(from).append("\n");
+      }
+      stream.append("\n");
+    }
+    git(stream.toString(), "fast-import", "--quiet");
+    return git(null, "rev-parse", ref);
+  }
+
+  /**
+   * Adds a commit, with the empty tree, that no ref points to.
+   *
+   * @return the new commit.
+   */
+  public String commitWithParents(final String message, final String... parents)
+      throws IOException {
+    final List<String> arguments = new ArrayList<>();
+    arguments.add("commit-tree");
+    arguments.add(git(null, "hash-object", "-t", "tree", "-w", "--stdin"));
+    arguments.add("-m");
+    arguments.add(message);
+    for (final String parent : parents) {
+      arguments.add("-p");
+      arguments.add(parent);
+    }
+    return git(null, arguments.toArray(new String[arguments.size()]));
+  }
+
+  /**
+   * Adds a commit to master, with files of the given sizes.
+   *
+   * @param pathsAndSizes path, size in bytes, path, size in bytes...
+   */
+  public String commitFiles(final Object... pathsAndSizes) throws IOException {
+    final StringBuilder stream = new StringBuilder();
+    stream.append("commit refs/heads/master\n");
+    stream.append("committer Tomas <my@email.com> 0 +0000\n");
+    stream.append("data 6\nfiles\n");
+    stream.append("from ").append(git(null, "rev-parse", "master")).append("\n");
+    for (int i = 0; i < pathsAndSizes.length; i += 2) {
+      final int size = (Integer) pathsAndSizes[i + 1];
+      stream.append("M 100644 inline ").append(pathsAndSizes[i]).append("\n");
+      stream.append("data ").append(size).append("\n").append(Strings.repeat("x", size));
+      stream.append("\n");
+    }
+    stream.append("\n");
+    git(stream.toString(), "fast-import", "--quiet");
+    return git(null, "rev-parse", "master");
+  }
+
+  /** @return the output of git, trimmed. */
+  public String git(final String input, final String... arguments) throws IOException {
+    final List<String> command = new ArrayList<>();
+    command.add("git");
+    command.addAll(Arrays.asList(arguments));
+    final Process process =
+        new ProcessBuilder(command).directory(this.gitDir).redirectErrorStream(true).start();
+    try (OutputStream stdin = process.getOutputStream()) {
+      if (input != null) {
+        stdin.write(input.getBytes(UTF_8));
+      }
+    }
+    return CharStreams.toString(new InputStreamReader(process.getInputStream(), UTF_8)).trim();
+  }
+
+  /** A new builder, with its own arguments, that runs git in the repository when called. */
+  private GitScmCommandBuilder newGitScmCommandBuilder() {
+    final List<String> arguments = new ArrayList<>();
+    final List<CommandInputHandler> inputHandlers = new ArrayList<>();
+    this.commands.add(arguments);
+    return mock(
+        GitScmCommandBuilder.class,
+        withSettings()
+            .defaultAnswer(
+                new Answer<Object>() {
+                  @Override
+                  public Object answer(final InvocationOnMock invocation) throws Throwable {
+                    final String method = invocation.getMethod().getName();
+                    if (method.equals("command") || method.equals("argument")) {
+                      arguments.add(invocation.<String>getArgument(0));
+                    }
+                    if (method.equals("inputHandler")) {
+                      inputHandlers.add(invocation.<CommandInputHandler>getArgument(0));
+                    }
+                    if (method.equals("build")) {
+                      return newGitCommand(
+                          arguments,
+                          inputHandlers,
+                          invocation.<CommandOutputHandler<?>>getArgument(0));
+                    }
+                    if (invocation.getMethod().getReturnType().isInstance(invocation.getMock())) {
+                      return invocation.getMock();
+                    }
+                    return RETURNS_DEFAULTS.answer(invocation);
+                  }
+                }));
+  }
+
+  private GitCommand<Object> newGitCommand(
+      final List<String> arguments,
+      final List<CommandInputHandler> inputHandlers,
+      final CommandOutputHandler<?> handler) {
+    @SuppressWarnings("unchecked")
+    final GitCommand<Object> gitCommand = mock(GitCommand.class);
+    when(gitCommand.call())
+        .thenAnswer(
+            new Answer<Object>() {
+              @Override
+              public Object answer(final InvocationOnMock invocation) throws Exception {
+                final List<String> command = new ArrayList<>();
+                command.add("git");
+                command.addAll(arguments);
+                final Process process =
+                    new ProcessBuilder(command).directory(LocalGitRepository.this.gitDir).start();
+                if (inputHandlers.isEmpty()) {
+                  process.getOutputStream().close();
+                } else {
+                  inputHandlers.get(0).process(process.getOutputStream());
+                }
+                handler.process(process.getInputStream());
+                assertTrue(command.toString(), process.waitFor() == 0);
+                return handler.getOutput();
+              }
+            });
+    return gitCommand;
+  }
+}
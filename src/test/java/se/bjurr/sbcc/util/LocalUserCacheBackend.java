@@ -0,0 +1,25 @@
+package se.bjurr.sbcc.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import se.bjurr.sbcc.SbccUserCacheBackend;
+
+/** In memory stand-in for the cluster cache, shared by the services of a test like by nodes. */
+public class LocalUserCacheBackend implements SbccUserCacheBackend {
+  private final Map<String, Boolean> answers = new ConcurrentHashMap<>();
+
+  @Override
+  public Boolean get(final String key) {
+    return this.answers.get(key);
+  }
+
+  @Override
+  public void put(final String key, final Boolean exists) {
+    this.answers.put(key, exists);
+  }
+
+  @Override
+  public void removeAll() {
+    this.answers.clear();
+  }
+}
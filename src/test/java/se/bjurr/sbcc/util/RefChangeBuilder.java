@@ -12,6 +12,9 @@ import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -44,6 +47,8 @@ import com.atlassian.bitbucket.user.SecurityService;
 import com.atlassian.bitbucket.user.UserType;
 import com.atlassian.bitbucket.util.Operation;
 import com.atlassian.bitbucket.util.Page;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.executor.ThreadLocalDelegateExecutorFactory;
 import com.atlassian.sal.api.net.ResponseException;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
@@ -55,12 +60,22 @@ import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import se.bjurr.sbcc.JiraClient;
+import se.bjurr.sbcc.SbccExecutors;
+import se.bjurr.sbcc.SbccMergeCheckVerdicts;
 import se.bjurr.sbcc.SbccRepositoryHook;
+import se.bjurr.sbcc.SbccSettingsCache;
 import se.bjurr.sbcc.SbccUserAdminService;
+import se.bjurr.sbcc.SbccVerifiedCommits;
+import se.bjurr.sbcc.commits.ChangeSetConsumer;
 import se.bjurr.sbcc.commits.ChangeSetsService;
 import se.bjurr.sbcc.data.SbccChangeSet;
 import se.bjurr.sbcc.settings.SbccGroup;
@@ -72,6 +87,17 @@ public class RefChangeBuilder {
   public static final String JIRA_RESPONSE_ONE = "jiraResponseOne.json";
   public static final String JIRA_RESPONSE_TWO = "jiraResponseTwo.json";
 
+  private static final SbccExecutors SBCC_EXECUTORS = createSbccExecutors();
+
+  private static SbccExecutors createSbccExecutors() {
+    final ThreadLocalDelegateExecutorFactory threadLocalDelegateExecutorFactory =
+        mock(ThreadLocalDelegateExecutorFactory.class);
+    when(threadLocalDelegateExecutorFactory.createExecutorService(
+            ArgumentMatchers.any(ExecutorService.class)))
+        .thenAnswer(returnsFirstArg());
+    return new SbccExecutors(threadLocalDelegateExecutorFactory);
+  }
+
   public static RefChangeBuilder refChangeBuilder() {
     try {
       return new RefChangeBuilder();
@@ -84,8 +110,9 @@ public class RefChangeBuilder {
   private ApplicationLinkService applicationLinkService;
   private final AuthenticationContext bitbucketAuthenticationContext;
   private final ApplicationUser bitbucketUser;
-  private final ChangeSetsService changeSetService;
+  private ChangeSetsService changeSetService;
 
+  private LocalGitRepository gitRepository;
   private String fromHash = "e2bc4ed00386fafe00100738f739b9f29c9f4beb";
   private final SbccRepositoryHook hook;
   private final Map<String, String> jiraJsonResponses = newHashMap();
@@ -94,6 +121,10 @@ public class RefChangeBuilder {
   private String outputAll = null;
   private RefChange refChange;
   private String refId = "refs/heads/master";
+  private final List<String> otherRefIds = newArrayList();
+  private final List<RefChange> otherRefChanges = newArrayList();
+  private final Map<String, Map<String, Long>> largeFiles = newHashMap();
+  private final Map<String, String> rejectedContent = newHashMap();
   private final RepositoryHookContext repositoryHookContext;
   private RepositoryHookService repositoryHookService;
   private SbccUserAdminService sbccUserAdminService;
@@ -120,6 +151,15 @@ public class RefChangeBuilder {
             }
             throw new RuntimeException("No faked response for: \"" + jqlCheckQuery + "\"");
           }
+
+          @Override
+          protected String invokeJira(
+              final ApplicationLinkService applicationLinkService,
+              final String jqlQuery,
+              final int startAt)
+              throws UnsupportedEncodingException, ResponseException, CredentialsRequiredException {
+            return invokeJira(applicationLinkService, jqlQuery);
+          }
         });
 
     this.newChangesets = newArrayList();
@@ -148,7 +188,11 @@ public class RefChangeBuilder {
             this.applicationLinkService,
             this.sbccUserAdminService,
             securityService,
-            repositoryHookService);
+            repositoryHookService,
+            new SbccSettingsCache(mock(EventPublisher.class)),
+            SBCC_EXECUTORS,
+            new SbccVerifiedCommits(),
+            new SbccMergeCheckVerdicts(mock(EventPublisher.class)));
     this.hook.setHookName("");
     final PluginSettingsFactory pluginSettingsFactory = mock(PluginSettingsFactory.class);
     this.repositoryHookService = mock(RepositoryHookService.class);
@@ -168,14 +212,56 @@ public class RefChangeBuilder {
   }
 
   public RefChangeBuilder build() throws IOException {
-    this.refChange = newRefChange();
-    when(this.changeSetService.getNewChangeSets(
+    this.refChange = newRefChange(this.refId);
+    for (final String otherRefId : this.otherRefIds) {
+      this.otherRefChanges.add(newRefChange(otherRefId));
+    }
+    if (this.gitRepository != null) {
+      return this;
+    }
+    try {
+      doAnswer(
+              new Answer<Void>() {
+                @Override
+                public Void answer(final InvocationOnMock invocation) throws Throwable {
+                  final ChangeSetConsumer consumer = invocation.getArgument(4);
+                  for (final SbccChangeSet sbccChangeSet : RefChangeBuilder.this.newChangesets) {
+                    consumer.accept(RefChangeBuilder.this.refId, sbccChangeSet);
+                  }
+                  for (final String otherRefId : RefChangeBuilder.this.otherRefIds) {
+                    for (final SbccChangeSet sbccChangeSet :
+                        RefChangeBuilder.this.newChangesets) {
+                      consumer.accept(otherRefId, sbccChangeSet);
+                    }
+                  }
+                  return null;
+                }
+              })
+          .when(this.changeSetService)
+          .streamNewChangeSets(
+              ArgumentMatchers.any(SbccSettings.class),
+              ArgumentMatchers.any(Repository.class),
+              ArgumentMatchers.<RefChange>anyList(),
+              ArgumentMatchers.any(ExecutorService.class),
+              ArgumentMatchers.any(ChangeSetConsumer.class));
+    } catch (final ExecutionException e) {
+      throw propagate(e);
+    }
+    when(this.changeSetService.findLargeFiles(
+            ArgumentMatchers.any(SbccSettings.class),
+            ArgumentMatchers.any(Repository.class),
+            ArgumentMatchers.<String>anyCollection()))
+        .thenReturn(this.largeFiles);
+    when(this.changeSetService.findRejectedContent(
             ArgumentMatchers.any(SbccSettings.class),
             ArgumentMatchers.any(Repository.class),
-            ArgumentMatchers.eq(this.refId),
-            ArgumentMatchers.eq(this.type),
-            ArgumentMatchers.eq(this.toHash)))
-        .thenReturn(this.newChangesets);
+            ArgumentMatchers.<String>anyCollection()))
+        .thenReturn(this.rejectedContent);
+    return this;
+  }
+
+  public RefChangeBuilder fakeJiraResponseJson(final String jqlQuery, final String json) {
+    this.jiraJsonResponses.put(jqlQuery, json);
     return this;
   }
 
@@ -218,10 +304,12 @@ public class RefChangeBuilder {
     final PrintWriter scmHookDetailsOut = new PrintWriter(stringWriter);
     final ScmHookDetails scmHookDetails = mock(ScmHookDetails.class);
     when(scmHookDetails.out()).thenReturn(scmHookDetailsOut);
-    final Repository repository = mock(Repository.class);
+    final Repository repository =
+        this.gitRepository != null ? this.gitRepository.getRepository() : mock(Repository.class);
 
-    repoHookResponse =
-        this.hook.performChecks(newArrayList(this.refChange), scmHookDetails, repository);
+    final List<RefChange> refChanges = newArrayList(this.refChange);
+    refChanges.addAll(this.otherRefChanges);
+    repoHookResponse = this.hook.performChecks(refChanges, scmHookDetails, repository);
     this.wasAccepted = repoHookResponse.isAccepted();
     this.outputAll = stringWriter.toString();
     if (!repoHookResponse.getVetoes().isEmpty()) {
@@ -235,14 +323,19 @@ public class RefChangeBuilder {
   }
 
   public RefChangeBuilder throwing(final IOException ioException) throws IOException {
-    this.refChange = newRefChange();
-    when(this.changeSetService.getNewChangeSets(
-            ArgumentMatchers.any(SbccSettings.class),
-            ArgumentMatchers.any(Repository.class),
-            ArgumentMatchers.any(String.class),
-            ArgumentMatchers.any(RefChangeType.class),
-            ArgumentMatchers.any(String.class)))
-        .thenThrow(ioException);
+    this.refChange = newRefChange(this.refId);
+    try {
+      doThrow(ioException)
+          .when(this.changeSetService)
+          .streamNewChangeSets(
+              ArgumentMatchers.any(SbccSettings.class),
+              ArgumentMatchers.any(Repository.class),
+              ArgumentMatchers.<RefChange>anyList(),
+              ArgumentMatchers.any(ExecutorService.class),
+              ArgumentMatchers.any(ChangeSetConsumer.class));
+    } catch (final ExecutionException e) {
+      throw propagate(e);
+    }
     return this;
   }
 
@@ -291,6 +384,13 @@ public class RefChangeBuilder {
     return this;
   }
 
+  /** Finds the new commits, and their files, in the repository instead of faking them. */
+  public RefChangeBuilder withGitRepository(final LocalGitRepository gitRepository) {
+    this.gitRepository = gitRepository;
+    this.changeSetService = gitRepository.getChangeSetsService();
+    return this;
+  }
+
   public RefChangeBuilder withGroupAcceptingAtLeastOneJira() {
     return this.withSetting(SETTING_GROUP_ACCEPT + "[0]", SbccGroup.Accept.ACCEPT.toString()) //
         .withSetting(SETTING_GROUP_MATCH + "[0]", SbccGroup.Match.ONE.toString()) //
@@ -387,6 +487,26 @@ public class RefChangeBuilder {
     return this;
   }
 
+  public RefChangeBuilder withLargeFile(
+      final String commitId, final String path, final long sizeKb) {
+    if (!this.largeFiles.containsKey(commitId)) {
+      this.largeFiles.put(commitId, new TreeMap<String, Long>());
+    }
+    this.largeFiles.get(commitId).put(path, sizeKb);
+    return this;
+  }
+
+  public RefChangeBuilder withRejectedContent(final String commitId, final String content) {
+    this.rejectedContent.put(commitId, content);
+    return this;
+  }
+
+  /** Adds another ref to the push, with the same new commits. */
+  public RefChangeBuilder withOtherRefId(final String refId) {
+    this.otherRefIds.add(refId);
+    return this;
+  }
+
   public RefChangeBuilder withRefId(final String refId) {
     this.refId = refId;
     return this;
@@ -425,7 +545,7 @@ public class RefChangeBuilder {
     return this;
   }
 
-  private RefChange newRefChange() {
+  private RefChange newRefChange(final String refId) {
     final RefChange refChange =
         new RefChange() {
 
@@ -445,7 +565,7 @@ public class RefChangeBuilder {
 
               @Override
               public String getId() {
-                return RefChangeBuilder.this.refId;
+                return refId;
               }
 
               @Override